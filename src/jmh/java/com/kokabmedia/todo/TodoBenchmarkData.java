@@ -0,0 +1,77 @@
+package com.kokabmedia.todo;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+/*
+ * This class builds the data sets the benchmarks run against.
+ *
+ * The todos are spread over a fixed number of users either uniformly or with a Zipf
+ * distribution, where a few power users own most of the todos like in production.
+ * The same distribution is used to pick the user of every benchmarked request.
+ */
+public class TodoBenchmarkData {
+
+	// Zipf exponent, with 1.0 the most active user owns about ten percent of all todos.
+	private static final double ZIPF_EXPONENT = 1.0;
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private final String[] users;
+
+	// Cumulative probability of picking the user at the same position, null when uniform.
+	private final double[] cumulative;
+
+	public TodoBenchmarkData(int userCount, String distribution) {
+		users = new String[userCount];
+		for (int i = 0; i < userCount; i++)
+			users[i] = "user" + i;
+
+		if ("zipf".equals(distribution)) {
+			cumulative = new double[userCount];
+			double sum = 0;
+			for (int i = 0; i < userCount; i++) {
+				sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+				cumulative[i] = sum;
+			}
+			for (int i = 0; i < userCount; i++)
+				cumulative[i] /= sum;
+		} else if ("uniform".equals(distribution)) {
+			cumulative = null;
+		} else {
+			throw new IllegalArgumentException("Unknown distribution " + distribution);
+		}
+	}
+
+	// Picks a user following the distribution of the data set.
+	public String user(Random random) {
+		if (cumulative == null)
+			return users[random.nextInt(users.length)];
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (index < 0)
+			index = -index - 1;
+		return users[Math.min(index, users.length - 1)];
+	}
+
+	/*
+	 * Adds the given amount of todos to the service, the new ids follow the dummy todos.
+	 * The target dates are spread over the year from today and every fourth todo is done.
+	 */
+	public void fill(TodoService service, int todos, Random random) {
+		long today = System.currentTimeMillis();
+		for (int i = 0; i < todos; i++)
+			service.addTodo(user(random), "Benchmark todo " + i, new Date(today + random.nextInt(365) * DAY), i % 4 == 0);
+	}
+
+	// Filter of the open todos of a random month of the year filled in.
+	public TodoFilter openTodosOfAMonth(Random random) {
+		long from = System.currentTimeMillis() + random.nextInt(335) * DAY;
+		return new TodoFilter(false, new Date(from), new Date(from + 30 * DAY));
+	}
+
+	// Number of users for a data set, on average a hundred todos per user.
+	public static int userCount(int todos) {
+		return Math.max(10, todos / 100);
+	}
+}
@@ -0,0 +1,85 @@
+package com.kokabmedia.todo;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.view.InternalResourceViewResolver;
+
+/*
+ * Measures a GET of /list-todos through the Spring MVC dispatcher, from request mapping
+ * and the controller method up to the resolved JSP view. The JSP itself is not rendered
+ * because there is no servlet container, the forward to it is only recorded.
+ *
+ * The controller returns a Callable, so the request is dispatched a second time with its
+ * result. The standalone MockMvc runs every Callable on a new thread instead of the pool
+ * of the application, which adds the start of a thread to every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodoControllerBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	int todos;
+
+	@Param({ "uniform", "zipf" })
+	String distribution;
+
+	MockMvc mockMvc;
+	TodoBenchmarkData data;
+
+	@Setup
+	public void setUp() {
+		data = new TodoBenchmarkData(TodoBenchmarkData.userCount(todos), distribution);
+		TodoController controller = new TodoController();
+		controller.service = new TodoService(new InMemoryTodoRepository(), new TodoListCache(10000, 300),
+				new TodoEvents(Runnable::run, 100, 300));
+		data.fill(controller.service, todos, new Random(42));
+
+		InternalResourceViewResolver viewResolver = new InternalResourceViewResolver();
+		viewResolver.setPrefix("/WEB-INF/views/");
+		viewResolver.setSuffix(".jsp");
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).setViewResolvers(viewResolver).build();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadRandom {
+		final Random random = new Random();
+	}
+
+	@Benchmark
+	public MvcResult showListOfTodos(ThreadRandom thread) throws Exception {
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(data.user(thread.random), "password"));
+		MvcResult started = mockMvc.perform(get("/list-todos")).andReturn();
+		// MockMvc would look for the result every 100 ms, waiting here keeps that out of the score
+		WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(started.getRequest());
+		while (!asyncManager.hasConcurrentResult())
+			Thread.yield();
+		return mockMvc.perform(asyncDispatch(started)).andReturn();
+	}
+}
@@ -0,0 +1,120 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/*
+ * A load test of the two executors of the todo-servlet.xml file, the pool of platform
+ * threads and the virtual threads of the "virtual-threads" profile.
+ *
+ * Every operation is a burst of concurrent requests that each read a todo through the
+ * TodoService from a storage that blocks for a while on every read, like a database.
+ * The score is the time until the whole burst is answered. The pool has as many threads
+ * as todo.async.poolSize in todo.properties.
+ *
+ * The virtual threads need Java 21, on an older Java their benchmarks fail in the setup.
+ * Run with: mvn -Pbenchmarks clean test-compile exec:exec -Djmh.args=TodoExecutorBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodoExecutorBenchmark {
+
+	private static final int POOL_SIZE = 50;
+
+	@Param({ "platform", "virtual" })
+	String threads;
+
+	// Concurrent requests of a burst.
+	@Param({ "100", "1000", "10000" })
+	int requests;
+
+	// Time every read of the storage blocks.
+	@Param({ "1" })
+	int storageMillis;
+
+	TodoService service;
+	AsyncTaskExecutor executor;
+	ExecutorService virtualThreads;
+
+	@Setup
+	public void setUp() {
+		service = new TodoService(new BlockingTodoRepository(storageMillis), new TodoListCache(10000, 300),
+				new TodoEvents(Runnable::run, 100, 300));
+		if ("virtual".equals(threads)) {
+			virtualThreads = TodoExecutors.newVirtualThreadExecutor("todo-virtual-");
+			executor = new TaskExecutorAdapter(virtualThreads);
+		} else if ("platform".equals(threads)) {
+			ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+			pool.setCorePoolSize(POOL_SIZE);
+			pool.setMaxPoolSize(POOL_SIZE);
+			pool.setQueueCapacity(Integer.MAX_VALUE);
+			pool.setThreadNamePrefix("todo-async-");
+			pool.initialize();
+			executor = pool;
+		} else {
+			throw new IllegalArgumentException("Unknown threads " + threads);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (executor instanceof ThreadPoolTaskExecutor)
+			((ThreadPoolTaskExecutor) executor).shutdown();
+		if (virtualThreads != null)
+			virtualThreads.shutdown();
+	}
+
+	@Benchmark
+	public void burstOfRequests() throws InterruptedException {
+		CountDownLatch answered = new CountDownLatch(requests);
+		for (int i = 0; i < requests; i++) {
+			int id = i % 3 + 1;
+			executor.submit(() -> {
+				service.retrieveTodo(id);
+				answered.countDown();
+			});
+		}
+		answered.await();
+	}
+
+	// The in-memory store with the latency of a remote storage on every read by id.
+	static class BlockingTodoRepository extends InMemoryTodoRepository {
+
+		private final int millis;
+
+		BlockingTodoRepository(int millis) {
+			this.millis = millis;
+		}
+
+		@Override
+		public Todo findById(int id) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.findById(id);
+		}
+	}
+}
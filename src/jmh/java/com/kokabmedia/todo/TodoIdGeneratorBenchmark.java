@@ -0,0 +1,59 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures id allocation with every core asking for ids at the same time.
+ *
+ * After every iteration the number of handed out ids is compared with the number of
+ * calls, the run fails if an increment got lost and an id was handed out twice.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TodoIdGeneratorBenchmark {
+
+	final TodoIdGenerator generator = new TodoIdGenerator(0);
+
+	final LongAdder calls = new LongAdder();
+
+	int firstId;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		calls.reset();
+		firstId = generator.lastId();
+	}
+
+	@Benchmark
+	public int nextId() {
+		calls.increment();
+		return generator.nextId();
+	}
+
+	@TearDown(Level.Iteration)
+	public void checkUnique() {
+		long handedOut = (long) generator.lastId() - firstId;
+		if (handedOut != calls.sum())
+			throw new IllegalStateException(calls.sum() + " calls but " + handedOut + " ids handed out");
+	}
+}
@@ -0,0 +1,161 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.el.BeanELResolver;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.FunctionMapper;
+import javax.el.VariableMapper;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.IterationTag;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.taglibs.standard.tag.rt.core.ForEachTag;
+import org.apache.taglibs.standard.tag.rt.fmt.FormatDateTag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockJspWriter;
+import org.springframework.mock.web.MockPageContext;
+import org.springframework.mock.web.MockServletContext;
+
+/*
+ * Measures writing the rows of the list-todos.jsp table for one page of todos, with the
+ * TodoRowsTag the page uses now against the c:forEach loop it used before.
+ *
+ * The JSP cannot be compiled without a servlet container, so jstlRows does what the
+ * compiled loop did: it drives the JSTL tag handlers of c:forEach and fmt:formatDate
+ * for every row and reads the properties of the todo with the EL bean resolver. Both
+ * write to a fresh buffer, like the JSP writer of a request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodoRenderingBenchmark {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	// The default and the largest page size of the TodoController class.
+	@Param({ "50", "500" })
+	int size;
+
+	List<Todo> todos;
+	MockServletContext servletContext;
+
+	// The compiled JSP reused one pooled formatDate handler for every row.
+	FormatDateTag formatDate;
+	ELResolver resolver;
+	ELContext elContext;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		long today = System.currentTimeMillis();
+		todos = new ArrayList<Todo>(size);
+		for (int i = 0; i < size; i++)
+			todos.add(new Todo(i + 1, "Ghiam", "Benchmark todo " + i, new Date(today + random.nextInt(365) * DAY),
+					i % 4 == 0));
+		servletContext = new MockServletContext();
+		formatDate = new FormatDateTag();
+		resolver = new BeanELResolver(true);
+		elContext = new ELContext() {
+			@Override
+			public ELResolver getELResolver() {
+				return resolver;
+			}
+
+			@Override
+			public FunctionMapper getFunctionMapper() {
+				return null;
+			}
+
+			@Override
+			public VariableMapper getVariableMapper() {
+				return null;
+			}
+		};
+	}
+
+	@Benchmark
+	public StringWriter rowsTag() throws IOException {
+		StringWriter buffer = new StringWriter(8192);
+		TodoRowsTag tag = new TodoRowsTag();
+		tag.setJspContext(pageContext(buffer));
+		tag.setTodos(todos);
+		tag.doTag();
+		return buffer;
+	}
+
+	@Benchmark
+	public StringWriter jstlRows() throws IOException, JspException {
+		StringWriter buffer = new StringWriter(8192);
+		PageContext pageContext = pageContext(buffer);
+		JspWriter out = pageContext.getOut();
+		ForEachTag forEach = new ForEachTag();
+		forEach.setPageContext(pageContext);
+		forEach.setItems(todos);
+		forEach.setVar("todo");
+		if (forEach.doStartTag() != Tag.SKIP_BODY) {
+			do {
+				Object todo = pageContext.findAttribute("todo");
+				out.write("\n\t\t\t\t\t<tr>\n\t\t\t\t\t\t<td>");
+				out.write(String.valueOf(resolver.getValue(elContext, todo, "desc")));
+				out.write("</td>\n\t\t\t\t\t\t<td>");
+				formatDate.setPageContext(pageContext);
+				formatDate.setParent(forEach);
+				formatDate.setPattern("dd/MM/yyyy");
+				formatDate.setValue((Date) resolver.getValue(elContext, todo, "targetDate"));
+				formatDate.doStartTag();
+				formatDate.doEndTag();
+				out.write("</td>\n\t\t\t\t\t\t<td>");
+				out.write(String.valueOf(resolver.getValue(elContext, todo, "done")));
+				out.write("</td>\n\t\t\t\t\t\t<td><a type=\"button\" class=\"btn btn-primary\"\n\t\t\t\t\t\t\thref=\"/update-todo?id=");
+				out.write(String.valueOf(resolver.getValue(elContext, todo, "id")));
+				out.write("\">Edit</a> <a type=\"button\"\n\t\t\t\t\t\t\tclass=\"btn btn-warning\" href=\"/delete-todo?id=");
+				out.write(String.valueOf(resolver.getValue(elContext, todo, "id")));
+				out.write("\">Delete</a>\n\t\t\t\t\t\t</td>\n\t\t\t\t\t</tr>\n\t\t\t\t");
+			} while (forEach.doAfterBody() == IterationTag.EVAL_BODY_AGAIN);
+		}
+		forEach.doEndTag();
+		forEach.doFinally();
+		return buffer;
+	}
+
+	// A page that writes to a buffer, the mock response would flush after every write.
+	private PageContext pageContext(StringWriter buffer) {
+		final JspWriter out = new MockJspWriter(buffer);
+		return new MockPageContext(servletContext, new MockHttpServletRequest(), new MockHttpServletResponse()) {
+			@Override
+			public JspWriter getOut() {
+				return out;
+			}
+
+			@Override
+			public ELContext getELContext() {
+				return elContext;
+			}
+		};
+	}
+}
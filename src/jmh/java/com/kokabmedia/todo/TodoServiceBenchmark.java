@@ -0,0 +1,117 @@
+package com.kokabmedia.todo;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures the TodoService operations at different store sizes and user distributions.
+ *
+ * The store is rebuilt before every iteration so the mutating benchmarks always start
+ * from the same size. Run with: mvn -Pbenchmarks clean test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodoServiceBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	int todos;
+
+	@Param({ "uniform", "zipf" })
+	String distribution;
+
+	TodoService service;
+	TodoBenchmarkData data;
+
+	// Ids of the dummy todos and the benchmark todos are 1 to lastId.
+	int lastId;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		Random random = new Random(42);
+		data = new TodoBenchmarkData(TodoBenchmarkData.userCount(todos), distribution);
+		service = new TodoService(new InMemoryTodoRepository(), new TodoListCache(10000, 300),
+				new TodoEvents(Runnable::run, 100, 300));
+		data.fill(service, todos, random);
+		lastId = todos + 3;
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadRandom {
+		final Random random = new Random();
+	}
+
+	@Benchmark
+	public void addTodo(ThreadRandom thread) {
+		service.addTodo(data.user(thread.random), "Added todo", new java.util.Date(), false);
+	}
+
+	@Benchmark
+	public List<Todo> retrieveTodos(ThreadRandom thread) {
+		return service.retrieveTodos(data.user(thread.random));
+	}
+
+	@Benchmark
+	public TodoPage retrieveTodoPage(ThreadRandom thread) {
+		return service.retrieveTodoPage(data.user(thread.random), null, null, TodoController.DEFAULT_PAGE_SIZE);
+	}
+
+	@Benchmark
+	public TodoPage retrieveFilteredTodoPage(ThreadRandom thread) {
+		return service.retrieveTodoPage(data.user(thread.random), data.openTodosOfAMonth(thread.random), TodoSort.DATE,
+				null, null, TodoController.DEFAULT_PAGE_SIZE);
+	}
+
+	@Benchmark
+	public TodoPage retrieveTodoPageByDescription(ThreadRandom thread) {
+		return service.retrieveTodoPage(data.user(thread.random), TodoFilter.ALL, TodoSort.DESC, null, null,
+				TodoController.DEFAULT_PAGE_SIZE);
+	}
+
+	// A prefix query, the number matches the ids of about one todo in a hundred.
+	@Benchmark
+	public List<Todo> searchTodos(ThreadRandom thread) {
+		return service.searchTodos(data.user(thread.random), "todo " + thread.random.nextInt(Math.max(1, todos / 100)),
+				TodoController.DEFAULT_PAGE_SIZE);
+	}
+
+	@Benchmark
+	public Todo retrieveTodo(ThreadRandom thread) {
+		return service.retrieveTodo(1 + thread.random.nextInt(lastId));
+	}
+
+	@Benchmark
+	public void updateTodo(ThreadRandom thread) {
+		Todo stored = service.retrieveTodo(1 + thread.random.nextInt(lastId));
+		if (stored != null)
+			service.updateTodo(new Todo(stored.getId(), stored.getUser(), "Updated todo",
+					stored.getTargetDate(), !stored.isDone()));
+	}
+
+	// Deletes a todo and puts it back so the store keeps its size.
+	@Benchmark
+	public void deleteTodo(ThreadRandom thread) {
+		Todo stored = service.retrieveTodo(1 + thread.random.nextInt(lastId));
+		if (stored != null) {
+			service.deleteTodo(stored.getId());
+			service.updateTodo(stored);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures the in-memory store with one shard and with many, with every core adding and
+ * reading todos of random users at the same time, and a scan of all todos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TodoShardBenchmark {
+
+	@Param({ "1", "32" })
+	int shards;
+
+	@Param({ "100000", "1000000" })
+	int todos;
+
+	InMemoryTodoRepository repository;
+	TodoBenchmarkData data;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		repository = new InMemoryTodoRepository(shards);
+		data = new TodoBenchmarkData(TodoBenchmarkData.userCount(todos), "uniform");
+		Random random = new Random(42);
+		for (int id = 1; id <= todos; id++)
+			repository.save(new Todo(id, data.user(random), "Todo " + id, new Date(), false, 1));
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadRandom {
+		final Random random = new Random();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void save(ThreadRandom thread) {
+		int id = todos + 1 + thread.random.nextInt(todos);
+		repository.save(new Todo(id, data.user(thread.random), "Saved todo", new Date(), false, 1));
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public TodoPage findPage(ThreadRandom thread) {
+		return repository.findPage(data.user(thread.random), null, null, TodoController.DEFAULT_PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Todo> findAll() {
+		return repository.findAll();
+	}
+}
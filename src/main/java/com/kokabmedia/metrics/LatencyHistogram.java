@@ -0,0 +1,80 @@
+package com.kokabmedia.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * This class counts latencies in buckets whose width grows with the value, like an HDR
+ * histogram: values below 256 nanoseconds have a bucket each, above that every power of
+ * two is split into 128 buckets. A percentile read from it is less than one percent above
+ * the real value, from nanoseconds up to a minute.
+ *
+ * Recording a value is a few shifts and one atomic increment, it never allocates and
+ * never locks, so it can be called on every request.
+ */
+public class LatencyHistogram {
+
+	// Bits of precision, 2^(PRECISION - 1) buckets for every power of two.
+	private static final int PRECISION = 8;
+	private static final int HALF = 1 << (PRECISION - 1);
+
+	// Values above about 68 seconds are counted as 68 seconds.
+	private static final long HIGHEST_VALUE = (1L << 36) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(HIGHEST_VALUE) + 1);
+
+	public void record(long nanos) {
+		counts.incrementAndGet(index(Math.max(0, Math.min(nanos, HIGHEST_VALUE))));
+	}
+
+	// Adds the counts of this histogram to an array from newCounts().
+	public void addTo(long[] total) {
+		for (int i = 0; i < total.length; i++)
+			total[i] += counts.get(i);
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+	}
+
+	public static long[] newCounts() {
+		return new long[index(HIGHEST_VALUE) + 1];
+	}
+
+	/*
+	 * The value at a percentile between 0 and 1 of counts from newCounts(), the highest
+	 * value of the bucket it falls in. Returns 0 when nothing was counted.
+	 */
+	public static long percentile(long[] counts, double percentile) {
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return highestValue(i);
+		}
+		return HIGHEST_VALUE;
+	}
+
+	/*
+	 * Values below 2^PRECISION are their own index. Above, the highest set bit picks the
+	 * power of two and the PRECISION bits below it pick the bucket within it.
+	 */
+	static int index(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (PRECISION - 1));
+		return shift * HALF + (int) (value >>> shift);
+	}
+
+	static long highestValue(int index) {
+		if (index < 2 * HALF)
+			return index;
+		int shift = index / HALF - 1;
+		long bucket = index - shift * HALF;
+		return ((bucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,61 @@
+package com.kokabmedia.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/*
+ * This class times every request that is handled by a @RequestMapping method of a
+ * controller, from the moment the Dispatcher Servlet picked the method until the view
+ * was rendered. It is declared in the <mvc:interceptors> element of the todo-servlet.xml
+ * file so the Dispatcher Servlet calls it around every handler.
+ *
+ * The timers are kept by the handler method, so after the first request of a method only
+ * the start time is stored in the request and nothing else is created.
+ *
+ * A handler that returns a Callable is dispatched twice, once to start it and once more
+ * to render its result. The start time of the first dispatch is kept, so the time the
+ * request waited for the task executor is part of its latency.
+ */
+public class LatencyInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = LatencyInterceptor.class.getName() + ".start";
+
+	@Autowired
+	private MetricsRegistry registry;
+
+	private final ConcurrentMap<Method, LatencyTimer> timers = new ConcurrentHashMap<Method, LatencyTimer>();
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (request.getAttribute(START_ATTRIBUTE) == null)
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if (start instanceof Long && handler instanceof HandlerMethod)
+			timer((HandlerMethod) handler).recordSince((Long) start);
+	}
+
+	// The timer of a handler method, labelled with its class and name like TodoController.addTodo.
+	private LatencyTimer timer(HandlerMethod handler) {
+		LatencyTimer timer = timers.get(handler.getMethod());
+		if (timer == null) {
+			String name = handler.getBeanType().getSimpleName() + "." + handler.getMethod().getName();
+			timer = registry.timer("http_request_duration_seconds", "Time to handle a request.", "handler", name);
+			timers.putIfAbsent(handler.getMethod(), timer);
+		}
+		return timer;
+	}
+}
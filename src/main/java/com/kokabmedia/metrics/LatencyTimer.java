@@ -0,0 +1,87 @@
+package com.kokabmedia.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * This class times one endpoint or operation. It counts every call and their total time
+ * since the application started, and keeps the latencies of the recent calls in two
+ * LatencyHistogram objects for the percentiles.
+ *
+ * Calls are recorded in the current histogram. When a window has passed the older
+ * histogram is emptied and becomes the current one, so the percentiles always cover the
+ * last full window and the calls since then. A call recorded during that switch may be
+ * lost, which does not move a percentile.
+ */
+public class LatencyTimer {
+
+	private final long windowNanos;
+
+	private final LatencyHistogram[] histograms = { new LatencyHistogram(), new LatencyHistogram() };
+
+	private volatile int current;
+
+	private final AtomicLong windowStart;
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	public LatencyTimer(long windowNanos) {
+		this.windowNanos = windowNanos;
+		this.windowStart = new AtomicLong(System.nanoTime());
+	}
+
+	// Records a call that started at a System.nanoTime() value and ended now.
+	public void recordSince(long startNanos) {
+		long now = System.nanoTime();
+		record(now - startNanos, now);
+	}
+
+	public void record(long nanos) {
+		record(nanos, System.nanoTime());
+	}
+
+	private void record(long nanos, long now) {
+		rotate(now);
+		histograms[current].record(nanos);
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/*
+	 * The latencies in nanoseconds at percentiles between 0 and 1 over the recent calls,
+	 * in the order of the percentiles.
+	 */
+	public long[] percentiles(double... percentiles) {
+		rotate(System.nanoTime());
+		long[] counts = LatencyHistogram.newCounts();
+		histograms[0].addTo(counts);
+		histograms[1].addTo(counts);
+		long[] values = new long[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++)
+			values[i] = LatencyHistogram.percentile(counts, percentiles[i]);
+		return values;
+	}
+
+	// Starts a new window when the current one is over, only one thread wins the switch.
+	private void rotate(long now) {
+		long start = windowStart.get();
+		long windows = (now - start) / windowNanos;
+		if (windows < 1 || !windowStart.compareAndSet(start, start + windows * windowNanos))
+			return;
+		int next = 1 - current;
+		histograms[next].reset();
+		if (windows > 1)
+			histograms[current].reset();
+		current = next;
+	}
+}
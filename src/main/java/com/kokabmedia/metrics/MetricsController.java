@@ -0,0 +1,50 @@
+package com.kokabmedia.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/*
+ * This class serves the metrics of the application in the text format of Prometheus, so
+ * a Prometheus server can scrape them. Only users with the ADMIN role may read them, a
+ * scraper logs in with HTTP Basic authentication.
+ *
+ * The request latencies come from the LatencyInterceptor class, the service latencies
+ * from the ServiceTimingInterceptor class and the sizes of the todo storage from the
+ * TodoMetrics class.
+ */
+@Controller
+public class MetricsController {
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	@Autowired
+	private MetricsRegistry registry;
+
+	@PostConstruct
+	public void registerSessionGauges() {
+		registry.gauge("http_sessions_active", "HTTP sessions that are open.", "gauge",
+				SessionCounter::getActiveSessions);
+		registry.gauge("http_sessions_created_total", "HTTP sessions created since the start.", "counter",
+				SessionCounter::getCreatedSessions);
+	}
+
+	/*
+	 * The response is written directly instead of through a view, it is plain text that
+	 * only a scraper reads.
+	 */
+	@RequestMapping(value = "/metrics", method = RequestMethod.GET)
+	public void showMetrics(HttpServletResponse response) throws IOException {
+		response.setContentType(CONTENT_TYPE);
+		PrintWriter out = response.getWriter();
+		registry.write(out);
+		out.flush();
+	}
+}
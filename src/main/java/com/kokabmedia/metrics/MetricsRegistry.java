@@ -0,0 +1,119 @@
+package com.kokabmedia.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ * This class holds the timers and gauges of the application and writes them in the text
+ * format of Prometheus, the MetricsController class serves it at /metrics.
+ *
+ * A timer is written as a summary with the 0.5, 0.99 and 0.999 quantiles of the recent
+ * calls, and the count and total seconds of all calls since the application started. A
+ * gauge is read when the metrics are written.
+ *
+ * The registry is declared in the todo-servlet.xml file with the length of the window the
+ * quantiles cover.
+ */
+public class MetricsRegistry {
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private final long windowNanos;
+
+	private final ConcurrentMap<String, TimerFamily> timers = new ConcurrentSkipListMap<String, TimerFamily>();
+
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+
+	public MetricsRegistry(int windowSeconds) {
+		this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+	}
+
+	/*
+	 * Returns the timer of a metric with one label, for example the metric
+	 * http_request_duration_seconds with the label handler="TodoController.showListOfTodos".
+	 * The timer is created the first time it is asked for.
+	 */
+	public LatencyTimer timer(String metric, String help, String label, String value) {
+		TimerFamily family = timers.get(metric);
+		if (family == null) {
+			TimerFamily created = new TimerFamily(help, label);
+			family = timers.putIfAbsent(metric, created);
+			if (family == null)
+				family = created;
+		}
+		LatencyTimer timer = family.timers.get(value);
+		if (timer == null) {
+			LatencyTimer created = new LatencyTimer(windowNanos);
+			timer = family.timers.putIfAbsent(value, created);
+			if (timer == null)
+				timer = created;
+		}
+		return timer;
+	}
+
+	// Adds a value that is read when the metrics are written, type is gauge or counter.
+	public void gauge(String metric, String help, String type, Supplier<? extends Number> value) {
+		gauges.put(metric, new Gauge(help, type, value));
+	}
+
+	public void write(PrintWriter out) {
+		for (Map.Entry<String, TimerFamily> entry : timers.entrySet()) {
+			String metric = entry.getKey();
+			TimerFamily family = entry.getValue();
+			out.println("# HELP " + metric + " " + family.help);
+			out.println("# TYPE " + metric + " summary");
+			for (Map.Entry<String, LatencyTimer> timer : family.timers.entrySet()) {
+				String label = family.label + "=\"" + escape(timer.getKey()) + "\"";
+				long[] values = timer.getValue().percentiles(QUANTILES);
+				for (int i = 0; i < QUANTILES.length; i++)
+					out.println(metric + "{" + label + ",quantile=\"" + QUANTILES[i] + "\"} " + seconds(values[i]));
+				out.println(metric + "_count{" + label + "} " + timer.getValue().getCount());
+				out.println(metric + "_sum{" + label + "} " + seconds(timer.getValue().getTotalNanos()));
+			}
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			Gauge gauge = entry.getValue();
+			out.println("# HELP " + entry.getKey() + " " + gauge.help);
+			out.println("# TYPE " + entry.getKey() + " " + gauge.type);
+			out.println(entry.getKey() + " " + gauge.value.get());
+		}
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	// The timers of one metric by the value of their label.
+	private static class TimerFamily {
+
+		final String help;
+		final String label;
+		final ConcurrentMap<String, LatencyTimer> timers = new ConcurrentSkipListMap<String, LatencyTimer>();
+
+		TimerFamily(String help, String label) {
+			this.help = help;
+			this.label = label;
+		}
+	}
+
+	private static class Gauge {
+
+		final String help;
+		final String type;
+		final Supplier<? extends Number> value;
+
+		Gauge(String help, String type, Supplier<? extends Number> value) {
+			this.help = help;
+			this.type = type;
+			this.value = value;
+		}
+	}
+}
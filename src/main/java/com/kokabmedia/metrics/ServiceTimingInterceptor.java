@@ -0,0 +1,48 @@
+package com.kokabmedia.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/*
+ * This class times the calls of the public methods of a bean, the todo-servlet.xml file
+ * puts it in front of the TodoService bean with a BeanNameAutoProxyCreator. Calls are
+ * labelled with the name of the method, so the overloads of a method share their timer.
+ *
+ * Calls the service makes to itself are not timed, they do not pass the proxy.
+ */
+public class ServiceTimingInterceptor implements MethodInterceptor {
+
+	private final MetricsRegistry registry;
+
+	private final String metric;
+
+	private final ConcurrentMap<Method, LatencyTimer> timers = new ConcurrentHashMap<Method, LatencyTimer>();
+
+	public ServiceTimingInterceptor(MetricsRegistry registry, String metric) {
+		this.registry = registry;
+		this.metric = metric;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		long start = System.nanoTime();
+		try {
+			return invocation.proceed();
+		} finally {
+			timer(invocation.getMethod()).recordSince(start);
+		}
+	}
+
+	private LatencyTimer timer(Method method) {
+		LatencyTimer timer = timers.get(method);
+		if (timer == null) {
+			timer = registry.timer(metric, "Time of a call of the service.", "operation", method.getName());
+			timers.putIfAbsent(method, timer);
+		}
+		return timer;
+	}
+}
@@ -0,0 +1,40 @@
+package com.kokabmedia.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/*
+ * This class counts the HTTP sessions of the application. It is declared as a listener in
+ * the web.xml file, so the servlet container creates it and calls it whenever a session
+ * is created or destroyed. The counts are static because the container and not the
+ * Spring framework owns the listener.
+ */
+public class SessionCounter implements HttpSessionListener {
+
+	private static final AtomicLong active = new AtomicLong();
+
+	private static final AtomicLong created = new AtomicLong();
+
+	@Override
+	public void sessionCreated(HttpSessionEvent event) {
+		active.incrementAndGet();
+		created.incrementAndGet();
+	}
+
+	@Override
+	public void sessionDestroyed(HttpSessionEvent event) {
+		active.decrementAndGet();
+	}
+
+	// Sessions that are open right now.
+	public static long getActiveSessions() {
+		return active.get();
+	}
+
+	// Sessions created since the application started.
+	public static long getCreatedSessions() {
+		return created.get();
+	}
+}
@@ -28,12 +28,23 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 				.roles("USER", "ADMIN");
 	}
 
-	// Ad exclusion to certain URL of the security protocols 
+	/*
+	 * Ad exclusion to certain URL of the security protocols 
+	 * 
+	 * The REST API under /api also accepts HTTP Basic authentication for clients without
+	 * a login form. It is left out of CSRF protection because it only accepts JSON bodies,
+	 * which a browser cannot send to another site without that site allowing it.
+	 *
+	 * The metrics at /metrics are only for users with the ADMIN role.
+	 */
 	@Override
 	protected void configure(HttpSecurity http) throws Exception {
 		http.authorizeRequests().antMatchers("/login").permitAll()
-				.antMatchers("/", "/*todo*/**").access("hasRole('USER')").and()
-				.formLogin();
+				.antMatchers("/metrics").access("hasRole('ADMIN')")
+				.antMatchers("/", "/*todo*/**", "/api/**").access("hasRole('USER')").and()
+				.formLogin().and()
+				.httpBasic().and()
+				.csrf().ignoringAntMatchers("/api/**");
 	}
 }
 
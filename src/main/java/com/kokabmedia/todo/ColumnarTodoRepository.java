@@ -0,0 +1,593 @@
+package com.kokabmedia.todo;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/*
+ * This class keeps the todos in memory outside of the Java heap, they are lost when the
+ * application stops.
+ *
+ * Every todo is a row and every field of the rows is a column in a direct ByteBuffer: the
+ * id, the user id from a TodoUsers table, the target date as an epoch day, the done
+ * flag and the version. Descriptions are UTF-8 bytes in an arena of direct buffers of the
+ * same size, the chunks, and a row holds their start as a long offset into the arena and
+ * their length. A description never spans two chunks, so the arena is not limited by the
+ * 2 GB of a single buffer. The garbage collector only sees a few large buffers, no matter
+ * how many todos are stored, so it has nothing to trace or copy for them.
+ *
+ * Rows are found without objects as well:
+ * rowsById     the row of every id plus one, indexed by id. Ids are handed out in order
+ *              by the TodoIdGenerator class so this index has few holes.
+ * firstRows    the first and last row of every user, indexed by user id. The rows of a
+ * lastRows     user are linked in the order they were added by the next and previous
+ *              row columns, so a user is scanned without touching other users.
+ *
+ * Rows of deleted todos are linked into a free list and used again. The descriptions of
+ * replaced and deleted todos stay in the arena until it is full. When they take more than
+ * half of it the live descriptions are copied into new chunks and the old chunks are
+ * freed right away, otherwise a chunk is added.
+ *
+ * A Todo object is only made for the rows that are returned, filters and page cursors
+ * are tested on the columns. One read write lock guards the whole store, any number of
+ * requests read at the same time.
+ */
+public class ColumnarTodoRepository implements TodoRepository {
+
+	private static final int NONE = -1;
+	private static final byte DONE = 1;
+
+	// Bounds of the size of a chunk of the arena, a description is at most a chunk long.
+	private static final int MIN_CHUNK_BYTES = 1 << 16;
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	// Frees a direct buffer right away instead of when the garbage collector finds it.
+	private static final Consumer<ByteBuffer> FREE = freeMethod();
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final TodoUsers users = new TodoUsers();
+
+	// Columns, one value for every row.
+	private IntBuffer ids;
+	private IntBuffer userIds;
+	private IntBuffer days;
+	private ByteBuffer flags;
+	private IntBuffer versions;
+	private LongBuffer descStarts;
+	private IntBuffer descLengths;
+	private IntBuffer nextRows;
+	private IntBuffer previousRows;
+
+	// Rows that were ever used, and the first free row linked by the next row column.
+	private int usedRows;
+	private int freeRow = NONE;
+	private int size;
+
+	private IntBuffer rowsById;
+	private int idLimit;
+
+	private IntBuffer firstRows;
+	private IntBuffer lastRows;
+
+	private final int chunkShift;
+	private final int chunkBytes;
+	private List<ByteBuffer> arena = new ArrayList<ByteBuffer>();
+	private long arenaUsed;
+	private long arenaGarbage;
+
+	public ColumnarTodoRepository(int initialRows, int initialDescriptionBytes) {
+		int rows = Math.max(16, initialRows);
+		ids = intColumn(rows);
+		userIds = intColumn(rows);
+		days = intColumn(rows);
+		flags = ByteBuffer.allocateDirect(rows);
+		versions = intColumn(rows);
+		descStarts = longColumn(rows);
+		descLengths = intColumn(rows);
+		nextRows = intColumn(rows);
+		previousRows = intColumn(rows);
+		rowsById = intColumn(rows);
+		firstRows = fill(intColumn(16), 0, NONE);
+		lastRows = fill(intColumn(16), 0, NONE);
+		// The chunks are a power of two long, so an offset is split into a chunk and a position with a shift
+		int bytes = Math.max(MIN_CHUNK_BYTES, Math.min(initialDescriptionBytes, MAX_CHUNK_BYTES));
+		chunkShift = 32 - Integer.numberOfLeadingZeros(bytes - 1);
+		chunkBytes = 1 << chunkShift;
+	}
+
+	@Override
+	public List<Todo> findAll() {
+		lock.readLock().lock();
+		try {
+			List<Todo> todos = new ArrayList<Todo>(size);
+			for (int id = 0; id < idLimit; id++) {
+				int row = rowsById.get(id) - 1;
+				if (row != NONE)
+					todos.add(toTodo(row));
+			}
+			return todos;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Todo> findByUser(String user) {
+		return findByFilter(user, TodoFilter.ALL);
+	}
+
+	// Tests the filter on the columns and only makes a Todo of the rows that match.
+	@Override
+	public List<Todo> findByFilter(String user, TodoFilter filter) {
+		lock.readLock().lock();
+		try {
+			List<Todo> todos = new ArrayList<Todo>();
+			for (int row = firstRow(user); row != NONE; row = nextRows.get(row)) {
+				if (filter.matches(days.get(row), (flags.get(row) & DONE) != 0))
+					todos.add(toTodo(row));
+			}
+			return todos;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * The target day and id of every matching row of the user are packed into one long that
+	 * sorts like a TodoCursor, the longs are sorted and the page is cut out of them. Pages
+	 * by description are sorted by the default of the TodoRepository interface.
+	 */
+	@Override
+	public TodoPage findPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before,
+			int size) {
+		if (sort != TodoSort.DATE)
+			return TodoRepository.super.findPage(user, filter, sort, after, before, size);
+		lock.readLock().lock();
+		try {
+			long[] keys = new long[16];
+			int count = 0;
+			for (int row = firstRow(user); row != NONE; row = nextRows.get(row)) {
+				int day = days.get(row);
+				if (!filter.matches(day, (flags.get(row) & DONE) != 0))
+					continue;
+				if (count == keys.length)
+					keys = Arrays.copyOf(keys, count * 2);
+				keys[count++] = key(day, ids.get(row));
+			}
+			Arrays.sort(keys, 0, count);
+
+			int from = 0;
+			int to = count;
+			if (before != null) {
+				to = position(keys, count, before, false);
+				from = Math.max(0, to - size);
+			} else {
+				if (after != null)
+					from = position(keys, count, after, true);
+				to = Math.min(count, from + size);
+			}
+			List<Todo> todos = new ArrayList<Todo>(to - from);
+			for (int i = from; i < to; i++)
+				todos.add(toTodo(rowsById.get(idOf(keys[i])) - 1));
+			return new TodoPage(todos, from > 0 && from < to ? cursorOf(keys[from]) : null,
+					to < count && from < to ? cursorOf(keys[to - 1]) : null);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Todo findById(int id) {
+		lock.readLock().lock();
+		try {
+			int row = rowOf(id);
+			return row == NONE ? null : toTodo(row);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void save(Todo todo) {
+		lock.writeLock().lock();
+		try {
+			put(todo);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// The version is compared and the row is written while holding the write lock.
+	@Override
+	public boolean update(Todo todo, int expectedVersion) {
+		lock.writeLock().lock();
+		try {
+			int row = rowOf(todo.getId());
+			if (row == NONE || versions.get(row) != expectedVersion)
+				return false;
+			todo.setVersion(expectedVersion + 1);
+			put(todo);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void saveAll(Collection<Todo> todos) {
+		lock.writeLock().lock();
+		try {
+			for (Todo todo : todos)
+				put(todo);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void delete(int id) {
+		lock.writeLock().lock();
+		try {
+			remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(int id, int expectedVersion) {
+		lock.writeLock().lock();
+		try {
+			int row = rowOf(id);
+			if (row == NONE || versions.get(row) != expectedVersion)
+				return false;
+			remove(id);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleteAll(Collection<Integer> ids) {
+		lock.writeLock().lock();
+		try {
+			for (int id : ids)
+				remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int maxId() {
+		lock.readLock().lock();
+		try {
+			// The id index only grows, it also covers the ids of deleted todos
+			return Math.max(0, idLimit - 1);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * A replaced todo keeps its row and with it its place in the list of its user. If the
+	 * todo now belongs to another user the row is moved to the end of the new user.
+	 */
+	private void put(Todo todo) {
+		int id = todo.getId();
+		if (id < 0)
+			throw new IllegalArgumentException("Todo ids cannot be negative: " + id);
+		int userId = users.idOf(todo.getUser());
+		int row = rowOf(id);
+		if (row == NONE) {
+			row = allocateRow();
+			ids.put(row, id);
+			link(row, userId);
+			setRowOf(id, row);
+			size++;
+		} else {
+			if (userIds.get(row) != userId) {
+				unlink(row);
+				link(row, userId);
+			}
+			releaseDesc(row);
+		}
+		days.put(row, TodoDates.toEpochDay(todo.getTargetDate()));
+		flags.put(row, todo.isDone() ? DONE : 0);
+		versions.put(row, todo.getVersion());
+		writeDesc(row, todo.getDesc() == null ? null : todo.getDesc().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void remove(int id) {
+		int row = rowOf(id);
+		if (row == NONE)
+			return;
+		unlink(row);
+		releaseDesc(row);
+		rowsById.put(id, 0);
+		nextRows.put(row, freeRow);
+		freeRow = row;
+		size--;
+	}
+
+	private int rowOf(int id) {
+		return id >= 0 && id < idLimit ? rowsById.get(id) - 1 : NONE;
+	}
+
+	private void setRowOf(int id, int row) {
+		if (id >= rowsById.capacity())
+			rowsById = grow(rowsById, Math.max(id + 1, rowsById.capacity() * 2), 0);
+		rowsById.put(id, row + 1);
+		idLimit = Math.max(idLimit, id + 1);
+	}
+
+	private int allocateRow() {
+		if (freeRow != NONE) {
+			int row = freeRow;
+			freeRow = nextRows.get(row);
+			return row;
+		}
+		if (usedRows == ids.capacity()) {
+			int rows = usedRows * 2;
+			ids = grow(ids, rows, 0);
+			userIds = grow(userIds, rows, 0);
+			days = grow(days, rows, 0);
+			versions = grow(versions, rows, 0);
+			descStarts = grow(descStarts, rows);
+			descLengths = grow(descLengths, rows, 0);
+			nextRows = grow(nextRows, rows, 0);
+			previousRows = grow(previousRows, rows, 0);
+			ByteBuffer grownFlags = ByteBuffer.allocateDirect(rows);
+			ByteBuffer source = flags.duplicate();
+			source.clear();
+			grownFlags.put(source).clear();
+			flags = grownFlags;
+		}
+		return usedRows++;
+	}
+
+	// Appends a row to the rows of a user.
+	private void link(int row, int userId) {
+		if (userId >= firstRows.capacity()) {
+			int capacity = Math.max(userId + 1, firstRows.capacity() * 2);
+			firstRows = grow(firstRows, capacity, NONE);
+			lastRows = grow(lastRows, capacity, NONE);
+		}
+		int last = lastRows.get(userId);
+		userIds.put(row, userId);
+		previousRows.put(row, last);
+		nextRows.put(row, NONE);
+		if (last == NONE)
+			firstRows.put(userId, row);
+		else
+			nextRows.put(last, row);
+		lastRows.put(userId, row);
+	}
+
+	private void unlink(int row) {
+		int userId = userIds.get(row);
+		int previous = previousRows.get(row);
+		int next = nextRows.get(row);
+		if (previous == NONE)
+			firstRows.put(userId, next);
+		else
+			nextRows.put(previous, next);
+		if (next == NONE)
+			lastRows.put(userId, previous);
+		else
+			previousRows.put(next, previous);
+	}
+
+	private int firstRow(String user) {
+		int userId = users.find(user);
+		return userId < 0 || userId >= firstRows.capacity() ? NONE : firstRows.get(userId);
+	}
+
+	private void releaseDesc(int row) {
+		int length = descLengths.get(row);
+		if (length > 0)
+			arenaGarbage += length;
+		descLengths.put(row, NONE);
+	}
+
+	private void writeDesc(int row, byte[] desc) {
+		if (desc == null) {
+			descLengths.put(row, NONE);
+			return;
+		}
+		// An empty description takes no bytes of the arena and is never read from it
+		if (desc.length == 0) {
+			descStarts.put(row, 0);
+			descLengths.put(row, 0);
+			return;
+		}
+		if (desc.length > chunkBytes)
+			throw new IllegalArgumentException("Todo descriptions cannot be longer than " + chunkBytes + " bytes");
+		long start = allocateDesc(desc.length, true);
+		descStart(start).put(desc);
+		descStarts.put(row, start);
+		descLengths.put(row, desc.length);
+	}
+
+	/*
+	 * Returns the offset for the next description. When it does not fit in the rest of the
+	 * last chunk, that rest is left as garbage and the description starts a new chunk.
+	 */
+	private long allocateDesc(int length, boolean mayCompact) {
+		long start = arenaUsed;
+		int position = (int) (start & (chunkBytes - 1));
+		if (position + length > chunkBytes)
+			start += chunkBytes - position;
+		if (start + length > (long) arena.size() << chunkShift) {
+			if (mayCompact && arenaGarbage > arenaUsed / 2) {
+				compactArena();
+				return allocateDesc(length, false);
+			}
+			arena.add(ByteBuffer.allocateDirect(chunkBytes));
+		}
+		arenaGarbage += start - arenaUsed;
+		arenaUsed = start + length;
+		return start;
+	}
+
+	/*
+	 * Copies the live descriptions into new chunks, the arena then has more than half of
+	 * its bytes live and is neither copied on every write nor grows with the garbage. The
+	 * old chunks are freed at once, no reader uses them while the write lock is held.
+	 */
+	private void compactArena() {
+		List<ByteBuffer> old = arena;
+		arena = new ArrayList<ByteBuffer>();
+		arenaUsed = 0;
+		arenaGarbage = 0;
+		for (int row = 0; row < usedRows; row++) {
+			int length = descLengths.get(row);
+			if (length <= 0) {
+				descStarts.put(row, 0);
+				continue;
+			}
+			long from = descStarts.get(row);
+			ByteBuffer desc = old.get((int) (from >>> chunkShift)).duplicate();
+			desc.position((int) (from & (chunkBytes - 1)));
+			desc.limit(desc.position() + length);
+			long start = allocateDesc(length, false);
+			descStart(start).put(desc);
+			descStarts.put(row, start);
+		}
+		for (ByteBuffer chunk : old)
+			FREE.accept(chunk);
+	}
+
+	// A view of the chunk of the arena that holds an offset, positioned at the offset.
+	private ByteBuffer descStart(long start) {
+		ByteBuffer chunk = arena.get((int) (start >>> chunkShift)).duplicate();
+		chunk.position((int) (start & (chunkBytes - 1)));
+		return chunk;
+	}
+
+	private Todo toTodo(int row) {
+		int length = descLengths.get(row);
+		String desc = null;
+		if (length == 0) {
+			desc = "";
+		} else if (length > 0) {
+			byte[] bytes = new byte[length];
+			descStart(descStarts.get(row)).get(bytes);
+			desc = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return new Todo(ids.get(row), users.nameOf(userIds.get(row)), desc, TodoDates.toDate(days.get(row)),
+				(flags.get(row) & DONE) != 0, versions.get(row));
+	}
+
+	// Sorts by day first, ids are never negative so they sort the same in the low bits.
+	private static long key(int day, int id) {
+		return ((long) day << 32) | id;
+	}
+
+	private static int idOf(long key) {
+		return (int) key;
+	}
+
+	private static TodoCursor cursorOf(long key) {
+		return TodoCursor.of((int) (key >> 32), idOf(key));
+	}
+
+	// Position of the first key after a cursor, or at or after it when the cursor itself is not wanted.
+	private static int position(long[] keys, int count, TodoCursor cursor, boolean after) {
+		int position = Arrays.binarySearch(keys, 0, count, key(cursor.getTargetDay(), cursor.getTargetDayId()));
+		if (position < 0)
+			return -position - 1;
+		return after ? position + 1 : position;
+	}
+
+	private static IntBuffer intColumn(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private static LongBuffer longColumn(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+	}
+
+	private static LongBuffer grow(LongBuffer column, int capacity) {
+		LongBuffer grown = longColumn(capacity);
+		LongBuffer source = column.duplicate();
+		source.clear();
+		grown.put(source).clear();
+		return grown;
+	}
+
+	// A larger copy of a column, the new values are set to empty.
+	private static IntBuffer grow(IntBuffer column, int capacity, int empty) {
+		IntBuffer grown = intColumn(capacity);
+		IntBuffer source = column.duplicate();
+		source.clear();
+		grown.put(source);
+		return fill(grown, column.capacity(), empty);
+	}
+
+	private static IntBuffer fill(IntBuffer column, int from, int value) {
+		if (value != 0) {
+			for (int i = from; i < column.capacity(); i++)
+				column.put(i, value);
+		}
+		column.clear();
+		return column;
+	}
+
+	/*
+	 * Java 9 and later free a direct buffer with the invokeCleaner() method of Unsafe, Java 8
+	 * with the cleaner of the buffer. Both are internal classes and looked up by reflection.
+	 * When neither is there the buffers are left to the garbage collector.
+	 */
+	private static Consumer<ByteBuffer> freeMethod() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			Object unsafe = theUnsafe.get(null);
+			return buffer -> invoke(invokeCleaner, unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Not Java 9 or later
+		}
+		try {
+			Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> invoke(clean, invoke(cleaner, buffer));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return buffer -> {
+			};
+		}
+	}
+
+	// A buffer that cannot be freed is freed later by the garbage collector.
+	private static Object invoke(Method method, Object target, Object... arguments) {
+		try {
+			return target == null ? null : method.invoke(target, arguments);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
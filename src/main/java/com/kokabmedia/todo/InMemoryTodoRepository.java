@@ -0,0 +1,591 @@
+package com.kokabmedia.todo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/*
+ * This class keeps the todos in memory, they are lost when the application stops.
+ *
+ * The todos are kept in two indexes: a primary index by id and a secondary index by user
+ * name. Looking up a todo by id is a single hash lookup and listing the todos of a user
+ * only touches the todos of that user, no matter how many todos other users have.
+ *
+ * Both indexes are split into shards, a power of two of them. A todo is kept in the shard
+ * of its id and the todos of a user in the shard of the user id, so a request only
+ * touches the maps of its shard and the maps stay small enough to grow quickly. The users
+ * and the todos get ids one after the other, which spreads them evenly over the shards.
+ * Reading all todos, at startup or for a snapshot, reads the shards in parallel.
+ *
+ * The todos of every user are also sorted by target date and by description, each split
+ * into the open and the done todos. A page of todos is found by seeking to its cursor
+ * instead of skipping all todos before it, a filter on the done flag only reads one of
+ * the two parts and a target date range only reads the part of the date index inside it.
+ *
+ * The todos are kept as compact TodoRecord objects with the user names in a TodoUsers
+ * table, every read hands out new Todo beans. Changing a bean that was read does not
+ * change the stored todo until it is saved again. Like the journal, the store keeps the
+ * day of the target date but not the time of day.
+ */
+public class InMemoryTodoRepository implements TodoRepository {
+
+	// Ids of the users that have or had todos.
+	private final TodoUsers users = new TodoUsers();
+
+	private final Shard[] shards;
+
+	// The highest id ever stored.
+	private final AtomicInteger maxId = new AtomicInteger();
+
+	// The shard of an id is its lowest bits.
+	private final int shardMask;
+
+	// One shard per processor.
+	public InMemoryTodoRepository() {
+		this(0);
+	}
+
+	// The number of shards is rounded up to a power of two, 0 is one shard per processor.
+	public InMemoryTodoRepository(int shardCount) {
+		int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+		count = count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+		shards = new Shard[count];
+		for (int i = 0; i < count; i++)
+			shards[i] = new Shard();
+		shardMask = count - 1;
+	}
+
+	/*
+	 * The shards are read side by side. Every shard holds every n-th id, so the todos are
+	 * sorted afterwards, the search index and the journal snapshot are built from them in
+	 * the order of their ids.
+	 */
+	@Override
+	public List<Todo> findAll() {
+		List<Todo> todos = Arrays.stream(shards).parallel().flatMap(shard -> shard.list(users).stream())
+				.collect(Collectors.toCollection(ArrayList::new));
+		todos.sort(Comparator.comparingInt(Todo::getId));
+		return todos;
+	}
+
+	@Override
+	public List<Todo> findByUser(String user) {
+		UserTodos userTodos = existingUserTodos(user);
+		if (userTodos == null)
+			return new ArrayList<Todo>();
+		return userTodos.list(users);
+	}
+
+	@Override
+	public List<Todo> findByFilter(String user, TodoFilter filter) {
+		UserTodos userTodos = existingUserTodos(user);
+		if (userTodos == null)
+			return new ArrayList<Todo>();
+		return userTodos.filter(filter, users);
+	}
+
+	@Override
+	public TodoPage findPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before,
+			int size) {
+		UserTodos userTodos = existingUserTodos(user);
+		if (userTodos == null)
+			return new TodoPage(new ArrayList<Todo>(), null, null);
+		return userTodos.page(filter, sort, after, before, size, users);
+	}
+
+	@Override
+	public Todo findById(int id) {
+		TodoRecord record = todosById(id).get(id);
+		return record == null ? null : record.toTodo(users);
+	}
+
+	/*
+	 * A replaced todo keeps its place in the list of its user. If the todo now belongs to
+	 * another user it is moved from the old user to the new one.
+	 */
+	@Override
+	public void save(Todo todo) {
+		TodoRecord record = TodoRecord.of(todo, users);
+		maxId.accumulateAndGet(record.getId(), Math::max);
+		moved(userTodos(record.getUserId()).put(record), record.getUserId());
+	}
+
+	/*
+	 * The stored record is swapped by a compare and set on the primary index while holding
+	 * the lock of its user, so the user index is changed in the same order. The new record
+	 * takes the place of the old one in the list of the user.
+	 */
+	@Override
+	public boolean update(Todo todo, int expectedVersion) {
+		TodoRecord current = todosById(todo.getId()).get(todo.getId());
+		if (current == null || current.getVersion() != expectedVersion)
+			return false;
+		TodoRecord record = TodoRecord.of(todo, users, expectedVersion + 1);
+		if (!userTodos(current.getUserId()).replace(current, record))
+			return false;
+		if (record.getUserId() != current.getUserId())
+			userTodos(record.getUserId()).sync(record.getId());
+		todo.setVersion(record.getVersion());
+		return true;
+	}
+
+	// The todos of each user are stored while holding its lock once.
+	@Override
+	public void saveAll(Collection<Todo> todos) {
+		Map<Integer, List<TodoRecord>> recordsOfUsers = new HashMap<Integer, List<TodoRecord>>();
+		for (Todo todo : todos) {
+			TodoRecord record = TodoRecord.of(todo, users);
+			maxId.accumulateAndGet(record.getId(), Math::max);
+			List<TodoRecord> recordsOfUser = recordsOfUsers.get(record.getUserId());
+			if (recordsOfUser == null) {
+				recordsOfUser = new ArrayList<TodoRecord>();
+				recordsOfUsers.put(record.getUserId(), recordsOfUser);
+			}
+			recordsOfUser.add(record);
+		}
+		for (Map.Entry<Integer, List<TodoRecord>> recordsOfUser : recordsOfUsers.entrySet()) {
+			for (TodoRecord previous : userTodos(recordsOfUser.getKey()).putAll(recordsOfUser.getValue()))
+				moved(previous, recordsOfUser.getKey());
+		}
+	}
+
+	@Override
+	public void delete(int id) {
+		TodoRecord record = todosById(id).get(id);
+		if (record != null)
+			moved(userTodos(record.getUserId()).remove(id), record.getUserId());
+	}
+
+	@Override
+	public boolean delete(int id, int expectedVersion) {
+		TodoRecord current = todosById(id).get(id);
+		if (current == null || current.getVersion() != expectedVersion)
+			return false;
+		return userTodos(current.getUserId()).remove(current);
+	}
+
+	@Override
+	public void deleteAll(Collection<Integer> ids) {
+		Map<Integer, List<Integer>> idsOfUsers = new HashMap<Integer, List<Integer>>();
+		for (int id : ids) {
+			TodoRecord record = todosById(id).get(id);
+			if (record == null)
+				continue;
+			List<Integer> idsOfUser = idsOfUsers.get(record.getUserId());
+			if (idsOfUser == null) {
+				idsOfUser = new ArrayList<Integer>();
+				idsOfUsers.put(record.getUserId(), idsOfUser);
+			}
+			idsOfUser.add(id);
+		}
+		for (Map.Entry<Integer, List<Integer>> idsOfUser : idsOfUsers.entrySet()) {
+			for (TodoRecord previous : userTodos(idsOfUser.getKey()).removeAll(idsOfUser.getValue()))
+				moved(previous, idsOfUser.getKey());
+		}
+	}
+
+	/*
+	 * Called after the primary index was changed under the lock of a user and replaced the
+	 * record of a todo that belonged to another user in the meantime, the index of that
+	 * user is brought in line with the primary index under its own lock.
+	 */
+	private void moved(TodoRecord previous, int userId) {
+		if (previous != null && previous.getUserId() != userId)
+			userTodos(previous.getUserId()).sync(previous.getId());
+	}
+
+	@Override
+	public int maxId() {
+		return maxId.get();
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards)
+			size += shard.todosById.size();
+		return size;
+	}
+
+	// Primary index of the shard of a todo id.
+	private ConcurrentMap<Integer, TodoRecord> todosById(int id) {
+		return shards[id & shardMask].todosById;
+	}
+
+	// Secondary index of the shard of a user id.
+	private ConcurrentMap<Integer, UserTodos> todosByUser(int userId) {
+		return shards[userId & shardMask].todosByUser;
+	}
+
+	// The todos of a user by name, null when the user has no todos yet.
+	private UserTodos existingUserTodos(String user) {
+		int userId = users.find(user);
+		return userId < 0 ? null : todosByUser(userId).get(userId);
+	}
+
+	private UserTodos userTodos(int userId) {
+		ConcurrentMap<Integer, UserTodos> todosByUser = todosByUser(userId);
+		UserTodos userTodos = todosByUser.get(userId);
+		if (userTodos == null) {
+			UserTodos created = new UserTodos(userId, this::todosById);
+			userTodos = todosByUser.putIfAbsent(userId, created);
+			if (userTodos == null)
+				userTodos = created;
+		}
+		return userTodos;
+	}
+
+	/*
+	 * One part of the indexes. The maps are concurrent, the shards need no lock of their own
+	 * and the todos of a user are guarded by the lock of the user.
+	 */
+	private static class Shard {
+
+		// Primary index, the todos whose id falls in this shard.
+		final ConcurrentMap<Integer, TodoRecord> todosById = new ConcurrentHashMap<Integer, TodoRecord>();
+
+		// Secondary index, the todos of each user id of this shard in the order they were added.
+		final ConcurrentMap<Integer, UserTodos> todosByUser = new ConcurrentHashMap<Integer, UserTodos>();
+
+		List<Todo> list(TodoUsers users) {
+			List<Todo> todos = new ArrayList<Todo>(todosById.size());
+			for (TodoRecord record : todosById.values())
+				todos.add(record.toTodo(users));
+			return todos;
+		}
+	}
+
+	/*
+	 * The todos of a single user. Every user has its own read write lock so requests of
+	 * different users never wait for each other and reads of the same user run side by
+	 * side, and new beans are handed out so callers can iterate them while the user keeps
+	 * adding and deleting todos. A lock instead of a monitor does not pin a virtual thread
+	 * to its carrier thread while it waits.
+	 */
+	private static class UserTodos {
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		private final int userId;
+
+		// The shard of the primary index that holds a todo id.
+		private final IntFunction<ConcurrentMap<Integer, TodoRecord>> todosById;
+
+		// Sorted by id, a deleted todo stored again or a todo moved from another user keeps its place.
+		private final Map<Integer, TodoRecord> todos = new TreeMap<Integer, TodoRecord>();
+
+		// The same todos sorted by target date and by description, split by their done flag.
+		private final NavigableSet<TodoRecord> openByDate = new TreeSet<TodoRecord>(TodoRecord.DATE_ORDER);
+		private final NavigableSet<TodoRecord> doneByDate = new TreeSet<TodoRecord>(TodoRecord.DATE_ORDER);
+		private final NavigableSet<TodoRecord> openByDesc = new TreeSet<TodoRecord>(TodoRecord.DESC_ORDER);
+		private final NavigableSet<TodoRecord> doneByDesc = new TreeSet<TodoRecord>(TodoRecord.DESC_ORDER);
+
+		UserTodos(int userId, IntFunction<ConcurrentMap<Integer, TodoRecord>> todosById) {
+			this.userId = userId;
+			this.todosById = todosById;
+		}
+
+		/*
+		 * The primary index of a todo is only changed while holding the lock of the user
+		 * whose index is changed with it, so both indexes change in the same order. The
+		 * methods return the replaced records, a replaced record of another user is removed
+		 * from the index of that user with sync().
+		 */
+		TodoRecord put(TodoRecord record) {
+			lock.writeLock().lock();
+			try {
+				TodoRecord previous = todosById.apply(record.getId()).put(record.getId(), record);
+				index(record);
+				return previous;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		List<TodoRecord> putAll(List<TodoRecord> records) {
+			List<TodoRecord> previous = new ArrayList<TodoRecord>();
+			lock.writeLock().lock();
+			try {
+				for (TodoRecord record : records) {
+					TodoRecord replaced = todosById.apply(record.getId()).put(record.getId(), record);
+					if (replaced != null)
+						previous.add(replaced);
+					index(record);
+				}
+				return previous;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		TodoRecord remove(int id) {
+			lock.writeLock().lock();
+			try {
+				TodoRecord previous = todosById.apply(id).remove(id);
+				unindex(id);
+				return previous;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		// Removes a record of this user from both indexes if the primary index still holds it.
+		boolean remove(TodoRecord current) {
+			lock.writeLock().lock();
+			try {
+				if (!todosById.apply(current.getId()).remove(current.getId(), current))
+					return false;
+				unindex(current.getId());
+				return true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		List<TodoRecord> removeAll(List<Integer> ids) {
+			List<TodoRecord> previous = new ArrayList<TodoRecord>();
+			lock.writeLock().lock();
+			try {
+				for (int id : ids) {
+					TodoRecord removed = todosById.apply(id).remove(id);
+					if (removed != null)
+						previous.add(removed);
+					unindex(id);
+				}
+				return previous;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		/*
+		 * Puts a record in the primary index if it still holds the current record, and in
+		 * this user index when the record stays with this user.
+		 */
+		boolean replace(TodoRecord current, TodoRecord record) {
+			lock.writeLock().lock();
+			try {
+				if (!todosById.apply(current.getId()).replace(current.getId(), current, record))
+					return false;
+				if (record.getUserId() == current.getUserId())
+					index(record);
+				else
+					unindex(current.getId());
+				return true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		// Indexes a todo if the primary index holds it for this user, and removes it otherwise.
+		void sync(int id) {
+			lock.writeLock().lock();
+			try {
+				TodoRecord current = todosById.apply(id).get(id);
+				if (current != null && current.getUserId() == userId)
+					index(current);
+				else
+					unindex(id);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		private void index(TodoRecord record) {
+			TodoRecord previous = todos.put(record.getId(), record);
+			if (previous != null)
+				unindex(previous);
+			(record.isDone() ? doneByDate : openByDate).add(record);
+			(record.isDone() ? doneByDesc : openByDesc).add(record);
+		}
+
+		private void unindex(int id) {
+			TodoRecord record = todos.remove(id);
+			if (record != null)
+				unindex(record);
+		}
+
+		private void unindex(TodoRecord record) {
+			(record.isDone() ? doneByDate : openByDate).remove(record);
+			(record.isDone() ? doneByDesc : openByDesc).remove(record);
+		}
+
+		List<Todo> list(TodoUsers users) {
+			lock.readLock().lock();
+			try {
+				List<Todo> list = new ArrayList<Todo>(todos.size());
+				for (TodoRecord record : todos.values())
+					list.add(record.toTodo(users));
+				return list;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		// The matching todos are read from the date index and put back in the order of their ids.
+		List<Todo> filter(TodoFilter filter, TodoUsers users) {
+			if (filter.getDone() == null && !filter.hasDateRange())
+				return list(users);
+			List<TodoRecord> records = new ArrayList<TodoRecord>();
+			lock.readLock().lock();
+			try {
+				for (NavigableSet<TodoRecord> part : parts(filter, TodoSort.DATE))
+					records.addAll(part);
+			} finally {
+				lock.readLock().unlock();
+			}
+			records.sort((first, second) -> Integer.compare(first.getId(), second.getId()));
+			List<Todo> list = new ArrayList<Todo>(records.size());
+			for (TodoRecord record : records)
+				list.add(record.toTodo(users));
+			return list;
+		}
+
+		/*
+		 * The page is merged from the open and the done part of the index of the sort, or
+		 * taken from one of them when the filter asks for open or done todos only.
+		 */
+		TodoPage page(TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before, int size,
+				TodoUsers users) {
+			lock.readLock().lock();
+			try {
+				return readPage(filter, sort, after, before, size, users);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		private TodoPage readPage(TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before, int size,
+				TodoUsers users) {
+			Comparator<TodoRecord> order = sort == TodoSort.DESC ? TodoRecord.DESC_ORDER : TodoRecord.DATE_ORDER;
+			List<NavigableSet<TodoRecord>> parts = parts(filter, sort);
+			List<Iterator<TodoRecord>> iterators = new ArrayList<Iterator<TodoRecord>>(parts.size());
+			for (NavigableSet<TodoRecord> part : parts) {
+				if (before != null)
+					iterators.add(before(part, probe(before)));
+				else if (after != null)
+					iterators.add(after(part, probe(after)));
+				else
+					iterators.add(part.iterator());
+			}
+			List<TodoRecord> page = merge(iterators, before != null ? order.reversed() : order, size);
+			if (before != null)
+				Collections.reverse(page);
+			List<Todo> todos = new ArrayList<Todo>(page.size());
+			for (TodoRecord record : page)
+				todos.add(record.toTodo(users));
+			if (page.isEmpty())
+				return new TodoPage(todos, null, null);
+
+			TodoRecord first = page.get(0);
+			TodoRecord last = page.get(page.size() - 1);
+			boolean hasPrevious = false;
+			boolean hasNext = false;
+			for (NavigableSet<TodoRecord> part : parts) {
+				hasPrevious |= part.lower(first) != null;
+				hasNext |= part.higher(last) != null;
+			}
+			return new TodoPage(todos, hasPrevious ? TodoCursor.of(first, sort) : null,
+					hasNext ? TodoCursor.of(last, sort) : null);
+		}
+
+		/*
+		 * The parts of the index of a sort that hold the todos matching a filter. There is no
+		 * index on description and target date together, for a date range sorted by
+		 * description the todos in the range are sorted into a new set.
+		 */
+		private List<NavigableSet<TodoRecord>> parts(TodoFilter filter, TodoSort sort) {
+			List<NavigableSet<TodoRecord>> parts = new ArrayList<NavigableSet<TodoRecord>>(2);
+			if (filter.getFromDay() > filter.getToDay())
+				return parts;
+			Boolean done = filter.getDone();
+			boolean byDate = sort == TodoSort.DATE || filter.hasDateRange();
+			if (done == null || !done)
+				parts.add(byDate ? openByDate : openByDesc);
+			if (done == null || done)
+				parts.add(byDate ? doneByDate : doneByDesc);
+			if (filter.hasDateRange()) {
+				TodoRecord from = new TodoRecord(Integer.MIN_VALUE, 0, filter.getFromDay(), null, false);
+				TodoRecord to = new TodoRecord(Integer.MAX_VALUE, 0, filter.getToDay(), null, false);
+				for (int i = 0; i < parts.size(); i++)
+					parts.set(i, parts.get(i).subSet(from, true, to, true));
+				if (sort == TodoSort.DESC) {
+					NavigableSet<TodoRecord> sorted = new TreeSet<TodoRecord>(TodoRecord.DESC_ORDER);
+					for (NavigableSet<TodoRecord> part : parts)
+						sorted.addAll(part);
+					parts = Collections.singletonList(sorted);
+				}
+			}
+			return parts;
+		}
+
+		/*
+		 * The records after a probe. A part limited to a date range cannot be cut at a probe
+		 * outside of the range, such a probe lies before or after all of its records.
+		 */
+		private static Iterator<TodoRecord> after(NavigableSet<TodoRecord> part, TodoRecord probe) {
+			Comparator<? super TodoRecord> order = part.comparator();
+			if (part.isEmpty() || order.compare(probe, part.last()) >= 0)
+				return Collections.emptyIterator();
+			if (order.compare(probe, part.first()) < 0)
+				return part.iterator();
+			return part.tailSet(probe, false).iterator();
+		}
+
+		// The records before a probe, the last one first.
+		private static Iterator<TodoRecord> before(NavigableSet<TodoRecord> part, TodoRecord probe) {
+			Comparator<? super TodoRecord> order = part.comparator();
+			if (part.isEmpty() || order.compare(probe, part.first()) <= 0)
+				return Collections.emptyIterator();
+			if (order.compare(probe, part.last()) > 0)
+				return part.descendingIterator();
+			return part.headSet(probe, false).descendingIterator();
+		}
+
+		// A record that sorts at the position of a cursor.
+		private static TodoRecord probe(TodoCursor cursor) {
+			if (cursor.getSort() == TodoSort.DESC) {
+				byte[] desc = cursor.getDesc() == null ? null : cursor.getDesc().getBytes(StandardCharsets.UTF_8);
+				return new TodoRecord(cursor.getId(), 0, TodoDates.NO_DATE, desc, false);
+			}
+			return new TodoRecord(cursor.getTargetDayId(), 0, cursor.getTargetDay(), null, false);
+		}
+
+		// Takes up to size records from sorted iterators, in the order over all of them.
+		private static List<TodoRecord> merge(List<Iterator<TodoRecord>> iterators, Comparator<TodoRecord> order,
+				int size) {
+			TodoRecord[] heads = new TodoRecord[iterators.size()];
+			for (int i = 0; i < heads.length; i++)
+				heads[i] = iterators.get(i).hasNext() ? iterators.get(i).next() : null;
+			List<TodoRecord> merged = new ArrayList<TodoRecord>(size);
+			while (merged.size() < size) {
+				int smallest = -1;
+				for (int i = 0; i < heads.length; i++) {
+					if (heads[i] != null && (smallest < 0 || order.compare(heads[i], heads[smallest]) < 0))
+						smallest = i;
+				}
+				if (smallest < 0)
+					break;
+				merged.add(heads[smallest]);
+				heads[smallest] = iterators.get(smallest).hasNext() ? iterators.get(smallest).next() : null;
+			}
+			return merged;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.kokabmedia.todo;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * This class stores the todos in a relational database through JDBC, the todo table
+ * is created by the todo-schema.sql script.
+ *
+ * Every statement is a prepared statement and the connections come from the pooled
+ * DataSource declared in the todo-servlet.xml file. Saving and deleting many todos is
+ * sent to the database as JDBC batches instead of one round trip per todo, the statements
+ * of one call run in a single transaction.
+ */
+public class JdbcTodoRepository implements TodoRepository {
+
+	private static final String SELECT = "SELECT id, username, description, target_date, done, version FROM todo";
+
+	private static final String INSERT = "INSERT INTO todo (username, description, target_date, done, version, id) VALUES (?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE = "UPDATE todo SET username = ?, description = ?, target_date = ?, done = ?, version = ? WHERE id = ?";
+
+	// The compare and set of update() is the WHERE clause, the database locks the row for it.
+	private static final String UPDATE_VERSION = UPDATE + " AND version = ?";
+
+	private static final String DELETE = "DELETE FROM todo WHERE id = ?";
+
+	private static final String DELETE_VERSION = DELETE + " AND version = ?";
+
+	private static final String RAISE_MAX_ID = "UPDATE todo_max_id SET max_id = ? WHERE max_id < ?";
+
+	private static final RowMapper<Todo> TODO_MAPPER = new RowMapper<Todo>() {
+		@Override
+		public Todo mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return new Todo(rs.getInt("id"), rs.getString("username"), rs.getString("description"),
+					rs.getTimestamp("target_date"), rs.getBoolean("done"), rs.getInt("version"));
+		}
+	};
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final TransactionTemplate transactionTemplate;
+
+	public JdbcTodoRepository(DataSource dataSource) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+	}
+
+	@Override
+	public List<Todo> findAll() {
+		return jdbcTemplate.query(SELECT + " ORDER BY id", TODO_MAPPER);
+	}
+
+	// Served by the index on (username, id), already in id order.
+	@Override
+	public List<Todo> findByUser(String user) {
+		return jdbcTemplate.query(SELECT + " WHERE username = ? ORDER BY id", TODO_MAPPER, user);
+	}
+
+	@Override
+	public Todo findById(int id) {
+		List<Todo> todos = jdbcTemplate.query(SELECT + " WHERE id = ?", TODO_MAPPER, id);
+		return todos.isEmpty() ? null : todos.get(0);
+	}
+
+	@Override
+	public void save(Todo todo) {
+		saveAll(Collections.singletonList(todo));
+	}
+
+	@Override
+	public boolean update(Todo todo, int expectedVersion) {
+		int updated = jdbcTemplate.update(UPDATE_VERSION, todo.getUser(), todo.getDesc(), timestamp(todo),
+				todo.isDone(), expectedVersion + 1, todo.getId(), expectedVersion);
+		if (updated == 0)
+			return false;
+		todo.setVersion(expectedVersion + 1);
+		return true;
+	}
+
+	/*
+	 * All todos are first sent as one batch of updates, the todos that did not exist yet
+	 * are then sent as one batch of inserts, and the highest id ever stored is raised. The
+	 * three run in one transaction, so when one of them fails none of the todos is stored.
+	 */
+	@Override
+	public void saveAll(Collection<Todo> todos) {
+		if (todos.isEmpty())
+			return;
+		List<Todo> batch = new ArrayList<Todo>(todos);
+		transactionTemplate.execute(status -> {
+			int[] updated = jdbcTemplate.batchUpdate(UPDATE, todoParameters(batch));
+
+			List<Todo> missing = new ArrayList<Todo>();
+			for (int i = 0; i < updated.length; i++) {
+				if (updated[i] == 0)
+					missing.add(batch.get(i));
+			}
+			if (!missing.isEmpty()) {
+				jdbcTemplate.batchUpdate(INSERT, todoParameters(missing));
+				int maxId = 0;
+				for (Todo todo : missing)
+					maxId = Math.max(maxId, todo.getId());
+				jdbcTemplate.update(RAISE_MAX_ID, maxId, maxId);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public void delete(int id) {
+		jdbcTemplate.update(DELETE, id);
+	}
+
+	@Override
+	public boolean delete(int id, int expectedVersion) {
+		return jdbcTemplate.update(DELETE_VERSION, id, expectedVersion) > 0;
+	}
+
+	@Override
+	public void deleteAll(Collection<Integer> ids) {
+		if (ids.isEmpty())
+			return;
+		List<Object[]> parameters = new ArrayList<Object[]>(ids.size());
+		for (Integer id : ids)
+			parameters.add(new Object[] { id });
+		transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(DELETE, parameters));
+	}
+
+	@Override
+	public int maxId() {
+		Integer maxId = jdbcTemplate.queryForObject(
+				"SELECT GREATEST(MAX(max_id), (SELECT COALESCE(MAX(id), 0) FROM todo)) FROM todo_max_id", Integer.class);
+		return maxId == null ? 0 : maxId;
+	}
+
+	@Override
+	public int size() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM todo", Integer.class);
+	}
+
+	// The parameters of INSERT and UPDATE have the same order.
+	private static BatchPreparedStatementSetter todoParameters(final List<Todo> todos) {
+		return new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				Todo todo = todos.get(i);
+				ps.setString(1, todo.getUser());
+				ps.setString(2, todo.getDesc());
+				ps.setTimestamp(3, timestamp(todo));
+				ps.setBoolean(4, todo.isDone());
+				ps.setInt(5, todo.getVersion());
+				ps.setInt(6, todo.getId());
+			}
+
+			@Override
+			public int getBatchSize() {
+				return todos.size();
+			}
+		};
+	}
+
+	private static Timestamp timestamp(Todo todo) {
+		return todo.getTargetDate() == null ? null : new Timestamp(todo.getTargetDate().getTime());
+	}
+}
@@ -0,0 +1,207 @@
+package com.kokabmedia.todo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * This class keeps the todos in memory and makes them durable with a TodoJournal, a
+ * lightweight alternative to a database for single node deployments.
+ *
+ * Reads are answered by the in-memory index. Every change is applied to the index and
+ * appended to the journal while holding the lock of this class, so the journal holds
+ * the changes of a todo in the same order as the index. The lock is a ReentrantLock and
+ * not a monitor, a virtual thread that waits for it or writes the journal while holding
+ * it does not pin its carrier thread. When the journal is full a
+ * compacted snapshot of the index is written and the journal starts over.
+ */
+public class JournalTodoRepository implements TodoRepository {
+
+	private final TodoRepository index;
+	private final TodoJournal journal;
+
+	// Orders the changes of the index and the journal.
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// Flush every change to the disk instead of leaving it to the operating system.
+	private boolean forceEveryChange;
+
+	public JournalTodoRepository(String directory, int journalCapacity) {
+		this(directory, journalCapacity, 0);
+	}
+
+	// The shards of the index in memory, 0 for one per processor.
+	public JournalTodoRepository(String directory, int journalCapacity, int shardCount) {
+		this.index = new InMemoryTodoRepository(shardCount);
+		this.journal = new TodoJournal(new File(directory), journalCapacity);
+	}
+
+	public void setForceEveryChange(boolean forceEveryChange) {
+		this.forceEveryChange = forceEveryChange;
+	}
+
+	// Replays the snapshot and the journal into the index.
+	public void open() throws IOException {
+		journal.open(index);
+	}
+
+	// Writes a snapshot so the next start only has to read the snapshot.
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			journal.writeSnapshot(index.findAll(), maxId());
+			journal.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public List<Todo> findAll() {
+		return index.findAll();
+	}
+
+	@Override
+	public List<Todo> findByUser(String user) {
+		return index.findByUser(user);
+	}
+
+	@Override
+	public TodoPage findPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before,
+			int size) {
+		return index.findPage(user, filter, sort, after, before, size);
+	}
+
+	@Override
+	public List<Todo> findByFilter(String user, TodoFilter filter) {
+		return index.findByFilter(user, filter);
+	}
+
+	@Override
+	public Todo findById(int id) {
+		return index.findById(id);
+	}
+
+	@Override
+	public void save(Todo todo) {
+		lock.lock();
+		try {
+			index.save(todo);
+			appendPut(todo);
+			force();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Only a successful update is appended to the journal, with its new version.
+	@Override
+	public boolean update(Todo todo, int expectedVersion) {
+		lock.lock();
+		try {
+			if (!index.update(todo, expectedVersion))
+				return false;
+			appendPut(todo);
+			force();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void saveAll(Collection<Todo> todos) {
+		lock.lock();
+		try {
+			index.saveAll(todos);
+			for (Todo todo : todos)
+				appendPut(todo);
+			force();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void delete(int id) {
+		lock.lock();
+		try {
+			index.delete(id);
+			appendDelete(id);
+			force();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(int id, int expectedVersion) {
+		lock.lock();
+		try {
+			if (!index.delete(id, expectedVersion))
+				return false;
+			appendDelete(id);
+			force();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void deleteAll(Collection<Integer> ids) {
+		lock.lock();
+		try {
+			index.deleteAll(ids);
+			for (int id : ids)
+				appendDelete(id);
+			force();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The index knows the ids stored since the start, the journal the ids stored before.
+	@Override
+	public int maxId() {
+		return Math.max(index.maxId(), journal.getMaxId());
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	// Writes a compacted snapshot of the index and empties the journal.
+	public void snapshot() {
+		lock.lock();
+		try {
+			try {
+				journal.writeSnapshot(index.findAll(), maxId());
+			} catch (IOException e) {
+				throw new UncheckedIOException("Writing the todo snapshot failed", e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// When the journal is full the change is kept by the snapshot of the index instead.
+	private void appendPut(Todo todo) {
+		if (!journal.appendPut(todo))
+			snapshot();
+	}
+
+	private void appendDelete(int id) {
+		if (!journal.appendDelete(id))
+			snapshot();
+	}
+
+	private void force() {
+		if (forceEveryChange)
+			journal.force();
+	}
+}
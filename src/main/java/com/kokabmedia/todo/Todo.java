@@ -5,6 +5,8 @@ import java.util.Objects;
 
 import javax.validation.constraints.Size;
 
+import org.springframework.util.StringUtils;
+
 /*
  * This is a model class for todos that will be created.
  * 
@@ -13,6 +15,9 @@ import javax.validation.constraints.Size;
 
 public class Todo {
 
+	// Longest description, the description column of the todo table holds as many characters.
+	public static final int MAX_DESC_LENGTH = 1000;
+
 	private int id;
 	private String user;
 	
@@ -20,8 +25,20 @@ public class Todo {
 	private Date targetDate;
 	private boolean isDone;
 	
+	/*
+	 * Counts the changes of a stored todo, a new todo has version 1. The update form sends
+	 * the version it was loaded with, so a change made by someone else in the meantime is
+	 * noticed instead of overwritten. 0 means the version is not known.
+	 */
+	private int version;
+	
 	public Todo(){}
 	
+	// A description that can be stored, it is not blank and not longer than MAX_DESC_LENGTH.
+	public static boolean isValidDesc(String desc) {
+		return StringUtils.hasText(desc) && desc.length() <= MAX_DESC_LENGTH;
+	}
+	
 	public Todo(int id, String user, String desc, Date targetDate, boolean isDone) {
 		super();
 		this.id = id;
@@ -31,6 +48,11 @@ public class Todo {
 		this.isDone = isDone;
 	}
 
+	public Todo(int id, String user, String desc, Date targetDate, boolean isDone, int version) {
+		this(id, user, desc, targetDate, isDone);
+		this.version = version;
+	}
+
 	
 	public int getId() {
 		return id;
@@ -62,6 +84,12 @@ public class Todo {
 	public void setDone(boolean isDone) {
 		this.isDone = isDone;
 	}
+	public int getVersion() {
+		return version;
+	}
+	public void setVersion(int version) {
+		this.version = version;
+	}
 	
 	/*
 	 * The purpose of this method is to returns a textual representation 
@@ -71,7 +99,7 @@ public class Todo {
 	@Override
 	public String toString() {
 		return "ToString - Todo [id=" + id + ", user=" + user + ", desc=" + desc + ", targetDate=" + targetDate + ", isDone="
-				+ isDone + "]";
+				+ isDone + ", version=" + version + "]";
 	}
 	
 	/*
@@ -1,24 +1,37 @@
 package com.kokabmedia.todo;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.propertyeditors.CustomDateEditor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.BindingResult;
-import org.springframework.web.bind.WebDataBinder;
-import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.SessionAttributes;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 
 /*
@@ -45,6 +58,13 @@ import org.springframework.web.bind.annotation.SessionAttributes;
  * The value of of name in this case that has been added to the model will live in the server 
  * memory for the duration of the session which is 30 minutes.
  */
+/*
+ * The methods that read or change todos return a Callable instead of the name of the view.
+ * The Dispatcher Servlet hands the Callable to the task executor declared in the
+ * todo-servlet.xml file and frees the thread of the servlet container while the todos are
+ * read or stored, the view is rendered when the Callable returned its name. The logged in
+ * user is looked up before, on the thread of the request.
+ */
 @SessionAttributes("name")
 public class TodoController {
 	
@@ -61,13 +81,21 @@ public class TodoController {
 	@Autowired
 	TodoService service;
 	
-	// For binding and formating date
-	@InitBinder
-	protected void initBinder(WebDataBinder binder) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-		binder.registerCustomEditor(Date.class, new CustomDateEditor(
-				dateFormat, false));
-	}
+	// Sends the changes of the todos to the open list-todos.jsp pages.
+	@Autowired
+	TodoEvents events;
+	
+	// Number of todos on a page of the list-todos view, unless the request asks for another size.
+	static final int DEFAULT_PAGE_SIZE = 50;
+	
+	// Largest page a request can ask for.
+	static final int MAX_PAGE_SIZE = 500;
+	
+	// Requests sent by the scripts of the pages, they are answered with rows instead of whole pages.
+	private static final String XHR = "X-Requested-With=XMLHttpRequest";
+	
+	// Content type of the rows of the table sent to the script of the list-todos.jsp page.
+	private static final MediaType TEXT_HTML_UTF8 = new MediaType("text", "html", StandardCharsets.UTF_8);
 	
 	/*
 	 * This method will return a a view in the form of a JSP file.
@@ -92,17 +120,126 @@ public class TodoController {
 	 * to send back. The returning value in the method body will be sent back as a response.
 	 */
 	//@ResponseBody
-	public String showListOfTodos(ModelMap model) {
+	/*
+	 * The todos are shown one page at a time sorted by target date. The optional "after" and 
+	 * "before" request parameters are the cursors of the next and previous page links in the
+	 * list-todos.jsp file, "size" is the number of todos on a page.
+	 *
+	 * The filter form of the list-todos.jsp file adds the optional "done", "from", "to" and 
+	 * "sort" request parameters. Only the open or the done todos are shown when "done" is 
+	 * false or true, "from" and "to" are the first and last target date shown in the dd/MM/yyyy
+	 * format, and "sort" is "date" or "desc" to sort by target date or description. A date 
+	 * that cannot be read is left out of the filter.
+	 *
+	 * The search box adds the optional "q" request parameter. With a query the todos whose 
+	 * description has words starting with the words of the query are shown instead of a page,
+	 * up to the largest page size, with the filter and the sort applied to them.
+	 *
+	 * The response carries an ETag and a Last-Modified header made from the version of the
+	 * todos of the user. When the browser sends the ETag back in an If-None-Match header and
+	 * nothing changed since, checkNotModified() answers with 304 Not Modified and the method 
+	 * returns null, so neither the model nor the JSP view is made. Only the ETag is checked,
+	 * Last-Modified has a resolution of one second and would miss quick successive changes.
+	 * The page embeds the CSRF token of the session, so the ETag covers the token as well and
+	 * a page cached before the user logged in again is not reused with a token that expired.
+	 * The versions are kept in memory, so only the todos are read on the task executor.
+	 */
+	public Callable<String> showListOfTodos(ModelMap model, WebRequest request, HttpServletResponse response,
+			@RequestParam(required = false) String after, @RequestParam(required = false) String before,
+			@RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+			@RequestParam(required = false) Boolean done, @RequestParam(required = false) String from,
+			@RequestParam(required = false) String to, @RequestParam(required = false) String sort,
+			@RequestParam(required = false) String q) {
+		
+		String user = retrieveLoggenInUserName();
+		TodoVersion version = service.retrieveVersion(user);
 		
-		/* 
-		 * The "todos" attribute will be mapped to variable in the JSP file that contains the variable "todos"
-		 * and a list of todos will be shown coming in from the second parameter value. The model instance will
-		 * make it available to the JSP view file.
-		 */
-		model.addAttribute("todos", service.retrieveTodos(retrieveLoggenInUserName()));
+		// The browser may keep the page but has to ask every time whether it is still current.
+		response.setHeader("Cache-Control", "private, no-cache");
+		response.setDateHeader("Last-Modified", version.getLastModified());
+		CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName(),
+				RequestAttributes.SCOPE_REQUEST);
+		String etag = csrfToken == null ? version.toETag(user) : version.toETag(user, csrfToken.getToken());
+		if (request.checkNotModified(etag))
+			return null;
 		
-		// A JSP file with the name list-todos is returned to the Dispatcher Servlet.
-		return "list-todos";
+		int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+		TodoFilter filter = new TodoFilter(done, parseDate(from), parseDate(to));
+		TodoSort todoSort = TodoSort.parse(sort);
+		TodoCursor afterCursor = parseCursor(after, todoSort);
+		TodoCursor beforeCursor = parseCursor(before, todoSort);
+		return () -> {
+			TodoPage page;
+			if (StringUtils.hasText(q))
+				page = searchTodos(user, q, filter, todoSort);
+			else
+				page = service.retrieveTodoPage(user, filter, todoSort, afterCursor, beforeCursor, pageSize);
+			
+			/* 
+			 * The "todos" attribute will be mapped to variable in the JSP file that contains the variable "todos"
+			 * and a list of todos will be shown coming in from the second parameter value. The model instance will
+			 * make it available to the JSP view file.
+			 */
+			model.addAttribute("todos", page.getTodos());
+			model.addAttribute("previousCursor", page.getPrevious());
+			model.addAttribute("nextCursor", page.getNext());
+			model.addAttribute("size", pageSize);
+			
+			// The filter is shown in the filter form and kept by the page links.
+			model.addAttribute("done", done == null ? "" : done.toString());
+			model.addAttribute("from", formatDate(filter.getFrom()));
+			model.addAttribute("to", formatDate(filter.getTo()));
+			model.addAttribute("sort", todoSort.name().toLowerCase());
+			model.addAttribute("q", q == null ? "" : q);
+			
+			// The version the page was rendered at, the live updates start from it.
+			model.addAttribute("listVersion", version.toETag(user));
+			
+			// A JSP file with the name list-todos is returned to the Dispatcher Servlet.
+			return "list-todos";
+		};
+	}
+	
+	// The search results as a single page without neighbouring pages
+	private TodoPage searchTodos(String user, String query, TodoFilter filter, TodoSort sort) {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (Todo todo : service.searchTodos(user, query, MAX_PAGE_SIZE)) {
+			if (filter.matches(todo))
+				todos.add(todo);
+		}
+		todos.sort((first, second) -> TodoCursor.of(first, sort).compareTo(TodoCursor.of(second, sort)));
+		return new TodoPage(todos, null, null);
+	}
+	
+	/*
+	 * A missing, empty or invalid cursor parameter means the page has no cursor and the
+	 * first page is shown, like a date that cannot be read is left out of the filter. So
+	 * is a cursor of the other sort, left in a link after the sort was changed.
+	 */
+	static TodoCursor parseCursor(String cursor, TodoSort sort) {
+		if (!StringUtils.hasLength(cursor))
+			return null;
+		try {
+			TodoCursor parsed = TodoCursor.parse(cursor);
+			return parsed.getSort() == sort ? parsed : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	// A missing, empty or invalid date parameter means no date
+	private Date parseDate(String date) {
+		if (!StringUtils.hasText(date))
+			return null;
+		try {
+			return TodoDateFormatter.parseDate(date);
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+	
+	private String formatDate(Date date) {
+		return TodoDateFormatter.formatDate(date);
 	}
 	
 	// Get user information from login form
@@ -141,61 +278,186 @@ public class TodoController {
 	 * to java bean. Form Binding is taking data from a form and making them available to a 
 	 * Spring bean.
 	 * 
-	 * BindingResult will collect validation errors messages.
+	 * BindingResult will collect validation errors messages. A target date that is not a
+	 * real day in the dd/MM/yyyy format is an error of the targetDate field, the todo.jsp
+	 * form is shown again with the message of the messages.properties file.
 	 * 
 	 * The ModelMap has the ability to store attributes in a map and chain to he method call.
 	 */
 	@RequestMapping(value="/add-todo", method = RequestMethod.POST)
-	public String addTodo(ModelMap model, Todo todo) {
+	public Callable<String> addTodo(ModelMap model, Todo todo, BindingResult result) {
 	
+		rejectInvalidDesc(todo, result);
+		if (result.hasErrors())
+			return () -> "todo";
+		String user = retrieveLoggenInUserName();
+		return () -> {
+			// Creates a new todo
+			service.addTodo(user, todo.getDesc(), new Date(), false);
+			
+			// Clears the model so no values are being passed in the URL
+			model.clear();
+			
+			// the redirect keyword redirects the request to a specific URL
+			return "redirect:list-todos";
+		};
+	}
 	
-		// Creates a new todo
-		service.addTodo(retrieveLoggenInUserName(), todo.getDesc(), new Date(), false);
-		
-		// Clears the model so no values are being passed in the URL
-		model.clear();
-		
-		// the redirect keyword redirects the request to a specific URL
-		return "redirect:list-todos";
+	/*
+	 * The add form of the list-todos.jsp page is sent by a script, which jQuery marks with
+	 * the X-Requested-With header. The headers condition picks this method instead of the
+	 * one above for such requests: the new todo is answered with 201 and its row of the
+	 * table, which the script appends to the list, instead of a redirect to the whole list.
+	 */
+	@RequestMapping(value="/add-todo", method = RequestMethod.POST, headers = XHR)
+	public Callable<ResponseEntity<String>> addTodoRow(Todo todo) {
+	
+		if (!Todo.isValidDesc(todo.getDesc()))
+			return () -> new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
+		String user = retrieveLoggenInUserName();
+		return () -> rowResponse(service.addTodo(user, todo.getDesc(), new Date(), false), HttpStatus.CREATED);
 	}
 	
 	@RequestMapping(value="/delete-todo", method = RequestMethod.GET)
-	public String deleteTodo(@RequestParam int id, ModelMap model) {
+	public Callable<String> deleteTodo(@RequestParam int id, ModelMap model) {
 	
-		/* 
-		 * Delete a specific todo, the id of a todo is passed in as a  parameter value ${todo.id}
-		 * in the list-todo.jsp file
-		 */
-		service.deleteTodo(id);
-		
-		// Clears the model so no values are being passed in the URL
-		model.clear();
-		
-		// the redirect keyword redirects the request to a specific URL
-		return "redirect:list-todos";
+		String user = retrieveLoggenInUserName();
+		return () -> {
+			/* 
+			 * Delete a specific todo, the id of a todo is passed in as a  parameter value ${todo.id}
+			 * in the list-todo.jsp file. A todo of another user is left alone.
+			 */
+			service.deleteTodo(id, user);
+			
+			// Clears the model so no values are being passed in the URL
+			model.clear();
+			
+			// the redirect keyword redirects the request to a specific URL
+			return "redirect:list-todos";
+		};
+	}
+ 
+	/*
+	 * The Delete buttons of the list-todos.jsp page are sent by a script as a POST, which
+	 * is acknowledged with 204 and no body, the script removes the row. A todo of another
+	 * user is answered with 404.
+	 */
+	@RequestMapping(value="/delete-todo", method = RequestMethod.POST, headers = XHR)
+	public Callable<ResponseEntity<Void>> deleteTodoRow(@RequestParam int id) {
+	
+		String user = retrieveLoggenInUserName();
+		return () -> new ResponseEntity<Void>(service.deleteTodo(id, user) ? HttpStatus.NO_CONTENT
+				: HttpStatus.NOT_FOUND);
+	}
+	
+	/*
+	 * Marks a todo done or not done without the update form: the list-todos.jsp page posts
+	 * the id and the new state when the checkbox of a row is clicked. Only the done flag of
+	 * the stored todo is changed, and the answer is the new row of the table, which the page
+	 * puts in place of the old one. A todo of another user is answered with 404.
+	 */
+	@RequestMapping(value="/toggle-todo", method = RequestMethod.POST)
+	public Callable<ResponseEntity<String>> toggleTodo(@RequestParam int id, @RequestParam boolean done) {
+	
+		String user = retrieveLoggenInUserName();
+		return () -> {
+			Todo todo = service.changeTodo(id, user, current -> current.setDone(done));
+			if (todo == null)
+				return new ResponseEntity<String>(HttpStatus.NOT_FOUND);
+			return rowResponse(todo, HttpStatus.OK);
+		};
+	}
+	
+	/*
+	 * The live updates of the list-todos.jsp page. The EventSource of the page keeps this
+	 * request open and receives an event for every todo of the user that is added, changed
+	 * or deleted, from any browser or from the REST API. The TodoEvents class describes the
+	 * events. The request is asynchronous, it holds no thread while it waits.
+	 */
+	@RequestMapping(value="/todo-events", method = RequestMethod.GET)
+	public SseEmitter todoEvents(HttpServletResponse response) {
+	
+		String user = retrieveLoggenInUserName();
+		// Closing the output stream ends a write to a page that stopped reading
+		return events.subscribe(user, () -> service.retrieveVersion(user), () -> response.getOutputStream().close());
+	}
+	
+	// A blank description or one the todo table cannot hold is an error of the desc field of the form.
+	private static void rejectInvalidDesc(Todo todo, BindingResult result) {
+		if (Todo.isValidDesc(todo.getDesc()))
+			return;
+		if (todo.getDesc() != null && todo.getDesc().length() > Todo.MAX_DESC_LENGTH)
+			result.rejectValue("desc", "todo.desc.tooLong", new Object[] { String.valueOf(Todo.MAX_DESC_LENGTH) },
+					null);
+		else
+			result.rejectValue("desc", "todo.desc.required");
+	}
+	
+	// A single row of the table of the list-todos.jsp page, written by a TodoRowWriter.
+	private ResponseEntity<String> rowResponse(Todo todo, HttpStatus status) throws IOException {
+		StringWriter row = new StringWriter();
+		new TodoRowWriter(row).writeRow(todo);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(TEXT_HTML_UTF8);
+		return new ResponseEntity<String>(row.toString(), headers, status);
 	}
  
+	// A todo that does not exist or belongs to another user is answered with 404.
 	@RequestMapping(value="/update-todo", method = RequestMethod.GET)
-	public String updateTodo(@RequestParam int id, ModelMap model) {
-	
-		/* 
-		 * Retrieves a specific todo, the id of a todo is passed in as a  parameter value ${todo.id}
-		 * in the list-todo.jsp file
-		 */
-		Todo todo = service.retrieveTodo(id);
-		model.addAttribute("todo", todo);
+	public Callable<String> updateTodo(@RequestParam int id, ModelMap model, HttpServletResponse response) {
+	
+		String user = retrieveLoggenInUserName();
+		return () -> {
+			/* 
+			 * Retrieves a specific todo, the id of a todo is passed in as a  parameter value ${todo.id}
+			 * in the list-todo.jsp file
+			 */
+			Todo todo = service.retrieveTodo(id);
+			if (todo == null || !todo.getUser().equals(user)) {
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return "error";
+			}
+			model.addAttribute("todo", todo);
 
-		// Returns to todo JSP view page
-		return "todo";
+			// Returns to todo JSP view page
+			return "todo";
+		};
 	}
 	
+	/*
+	 * The todo is only stored if it still has the version the form was loaded with. When
+	 * someone else changed it in the meantime the form is shown again with a 409 Conflict
+	 * status and the todo.conflict message, and with the current version, so submitting it
+	 * once more knowingly overwrites the other change. A todo deleted in the meantime is
+	 * gone from the list the user is sent back to. The id of a todo of another user is
+	 * answered with 404, the todo is not taken over.
+	 */
 	@RequestMapping(value="/update-todo", method = RequestMethod.POST)
-	public String updateTodo(ModelMap model, Todo todo) {
+	public Callable<String> updateTodo(ModelMap model, Todo todo, BindingResult result,
+			HttpServletResponse response) {
 	
-		todo.setUser(retrieveLoggenInUserName());
-		service.updateTodo(todo);
-		// the redirect keyword redirects the request to a specific URL
-		return "redirect:list-todos";
+		// The form is shown again with the errors of the fields
+		rejectInvalidDesc(todo, result);
+		if (result.hasErrors())
+			return () -> "todo";
+		String user = retrieveLoggenInUserName();
+		return () -> {
+			if (!service.updateTodo(todo, todo.getVersion(), user)) {
+				Todo current = service.retrieveTodo(todo.getId());
+				if (current != null && !current.getUser().equals(user)) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					return "error";
+				}
+				if (current != null) {
+					todo.setVersion(current.getVersion());
+					result.reject("todo.conflict");
+					response.setStatus(HttpServletResponse.SC_CONFLICT);
+					return "todo";
+				}
+			}
+			// the redirect keyword redirects the request to a specific URL
+			return "redirect:list-todos";
+		};
 	}
 		
 	
@@ -0,0 +1,157 @@
+package com.kokabmedia.todo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Objects;
+
+/*
+ * This class is a position in the list of todos of a user, which is sorted by target date
+ * or by description and then by id. A page of todos starts right after or ends right
+ * before a cursor.
+ *
+ * In a URL a cursor by target date is written as the target date in milliseconds and the
+ * id separated by an underscore, for example 1476662400000_42. A cursor by description is
+ * written as a d, the id, an underscore and the description in URL safe Base64, for
+ * example d42_TGVhcm4gSmF2YQ. The underscore is left out for a todo without description.
+ */
+public class TodoCursor implements Comparable<TodoCursor> {
+
+	// Sorts todos without a target date first.
+	static final long NO_DATE = Long.MIN_VALUE;
+
+	private final TodoSort sort;
+	private final long targetDate;
+	private final String desc;
+	private final int id;
+
+	public TodoCursor(long targetDate, int id) {
+		this(TodoSort.DATE, targetDate, null, id);
+	}
+
+	private TodoCursor(TodoSort sort, long targetDate, String desc, int id) {
+		this.sort = sort;
+		this.targetDate = targetDate;
+		this.desc = desc;
+		this.id = id;
+	}
+
+	// A cursor by description.
+	public static TodoCursor byDesc(String desc, int id) {
+		return new TodoCursor(TodoSort.DESC, NO_DATE, desc, id);
+	}
+
+	// The position of a specific todo by target date.
+	public static TodoCursor of(Todo todo) {
+		return new TodoCursor(todo.getTargetDate() == null ? NO_DATE : todo.getTargetDate().getTime(), todo.getId());
+	}
+
+	// The position of a specific todo in a specific sort.
+	public static TodoCursor of(Todo todo, TodoSort sort) {
+		return sort == TodoSort.DESC ? byDesc(todo.getDesc(), todo.getId()) : of(todo);
+	}
+
+	// The position of a specific stored todo by target date.
+	public static TodoCursor of(TodoRecord record) {
+		return of(record.getTargetDay(), record.getId());
+	}
+
+	// The position of a specific stored todo in a specific sort.
+	public static TodoCursor of(TodoRecord record, TodoSort sort) {
+		return sort == TodoSort.DESC ? byDesc(record.getDesc(), record.getId()) : of(record);
+	}
+
+	// The position of a todo with a target date kept as an epoch day.
+	public static TodoCursor of(int targetDay, int id) {
+		return new TodoCursor(targetDay == TodoDates.NO_DATE ? NO_DATE : TodoDates.startOfDay(targetDay), id);
+	}
+
+	// Reads a cursor written by toString(), throws IllegalArgumentException for anything else.
+	public static TodoCursor parse(String text) {
+		try {
+			if (text.startsWith("d")) {
+				int separator = text.indexOf('_');
+				if (separator < 0)
+					return byDesc(null, Integer.parseInt(text.substring(1)));
+				byte[] desc = Base64.getUrlDecoder().decode(text.substring(separator + 1));
+				return byDesc(new String(desc, StandardCharsets.UTF_8), Integer.parseInt(text.substring(1, separator)));
+			}
+			int separator = text.indexOf('_');
+			if (separator < 0)
+				throw new IllegalArgumentException("Invalid todo cursor " + text);
+			return new TodoCursor(Long.parseLong(text.substring(0, separator)),
+					Integer.parseInt(text.substring(separator + 1)));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid todo cursor " + text, e);
+		}
+	}
+
+	public TodoSort getSort() {
+		return sort;
+	}
+
+	public long getTargetDate() {
+		return targetDate;
+	}
+
+	public String getDesc() {
+		return desc;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	// The target date as an epoch day, for the stores that keep days.
+	public int getTargetDay() {
+		return targetDate == NO_DATE ? TodoDates.NO_DATE : TodoDates.toEpochDay(new Date(targetDate));
+	}
+
+	/*
+	 * The id to compare with the todos of the target day in a store that keeps days. A
+	 * cursor with a time of day, from a store that kept it, lies after every todo of its day.
+	 */
+	public int getTargetDayId() {
+		if (targetDate == NO_DATE || TodoDates.startOfDay(getTargetDay()) == targetDate)
+			return id;
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int compareTo(TodoCursor other) {
+		if (sort != other.sort)
+			return sort.compareTo(other.sort);
+		int byValue = sort == TodoSort.DESC ? TodoRecord.compareDesc(utf8(desc), utf8(other.desc))
+				: Long.compare(targetDate, other.targetDate);
+		return byValue != 0 ? byValue : Integer.compare(id, other.id);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(sort, targetDate, desc, id);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof TodoCursor))
+			return false;
+		TodoCursor other = (TodoCursor) obj;
+		return sort == other.sort && targetDate == other.targetDate && Objects.equals(desc, other.desc) && id == other.id;
+	}
+
+	@Override
+	public String toString() {
+		if (sort == TodoSort.DESC) {
+			if (desc == null)
+				return "d" + id;
+			return "d" + id + "_" + Base64.getUrlEncoder().withoutPadding().encodeToString(utf8(desc));
+		}
+		return targetDate + "_" + id;
+	}
+
+	private static byte[] utf8(String text) {
+		return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,68 @@
+package com.kokabmedia.todo;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.format.Formatter;
+
+/*
+ * This class reads and writes the target dates of the todos in the dd/MM/yyyy format of
+ * the forms and the list of todos.
+ *
+ * It is registered once with the conversion service in the todo-servlet.xml file, so the
+ * Spring framework uses it to bind the targetDate field of the todo form and to show it
+ * again in the form. The java.time formatter is immutable and shared by all requests,
+ * and it is strict: 31/02/2026 or 1/2/2026 is rejected instead of being turned into
+ * another day.
+ */
+public class TodoDateFormatter implements Formatter<Date> {
+
+	// Thread-safe, "uuuu" is the year, "yyyy" would need an era in strict mode.
+	public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/uuuu")
+			.withResolverStyle(ResolverStyle.STRICT);
+
+	// Most todos share a few target dates, every day around today is formatted once.
+	private static final AtomicReferenceArray<String> formattedDays = new AtomicReferenceArray<String>(
+			TodoDates.CACHED_DAYS);
+
+	@Override
+	public Date parse(String text, Locale locale) throws ParseException {
+		return parseDate(text);
+	}
+
+	@Override
+	public String print(Date date, Locale locale) {
+		return formatDate(date);
+	}
+
+	// The start of the day of a date like 17/10/2026.
+	public static Date parseDate(String text) throws ParseException {
+		try {
+			return TodoDates.toDate((int) LocalDate.parse(text.trim(), DATE_FORMAT).toEpochDay());
+		} catch (DateTimeParseException e) {
+			throw new ParseException(e.getMessage(), e.getErrorIndex());
+		}
+	}
+
+	// An empty string for a todo without a target date.
+	public static String formatDate(Date date) {
+		if (date == null)
+			return "";
+		int epochDay = TodoDates.toEpochDay(date);
+		int slot = TodoDates.cacheSlot(epochDay);
+		if (slot < 0)
+			return DATE_FORMAT.format(LocalDate.ofEpochDay(epochDay));
+		String formatted = formattedDays.get(slot);
+		if (formatted == null) {
+			formatted = DATE_FORMAT.format(LocalDate.ofEpochDay(epochDay));
+			formattedDays.set(slot, formatted);
+		}
+		return formatted;
+	}
+}
@@ -0,0 +1,66 @@
+package com.kokabmedia.todo;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * This class converts target dates between java.util.Date and the epoch day the stores
+ * keep, the number of days since 1970-01-01 in the default time zone of the server. The
+ * time of day is not kept, a date becomes the start of its day.
+ */
+public final class TodoDates {
+
+	// Epoch day of a todo without a target date.
+	public static final int NO_DATE = Integer.MIN_VALUE;
+
+	private static final ZoneId ZONE = ZoneId.systemDefault();
+
+	/*
+	 * Most todos share a few target dates around today, the time zone lookup is done once
+	 * per day for the days from a year before the application started to ten years after.
+	 * The days are slots of a fixed array, so dates sent by clients far outside of it are
+	 * converted every time and never grow the cache.
+	 */
+	static final int FIRST_CACHED_DAY = (int) LocalDate.now(ZONE).toEpochDay() - 366;
+
+	static final int CACHED_DAYS = 11 * 366;
+
+	private static final AtomicLongArray startOfDays = new AtomicLongArray(CACHED_DAYS);
+
+	private TodoDates() {
+	}
+
+	public static int toEpochDay(Date date) {
+		if (date == null)
+			return NO_DATE;
+		return (int) date.toInstant().atZone(ZONE).toLocalDate().toEpochDay();
+	}
+
+	public static Date toDate(int epochDay) {
+		if (epochDay == NO_DATE)
+			return null;
+		return new Date(startOfDay(epochDay));
+	}
+
+	// The start of a day in milliseconds.
+	public static long startOfDay(int epochDay) {
+		int slot = cacheSlot(epochDay);
+		if (slot < 0)
+			return LocalDate.ofEpochDay(epochDay).atStartOfDay(ZONE).toInstant().toEpochMilli();
+		// No day of the cached years starts at 0, the first instant of 1970
+		long startOfDay = startOfDays.get(slot);
+		if (startOfDay == 0) {
+			startOfDay = LocalDate.ofEpochDay(epochDay).atStartOfDay(ZONE).toInstant().toEpochMilli();
+			startOfDays.set(slot, startOfDay);
+		}
+		return startOfDay;
+	}
+
+	// The slot of a day in the caches of the days around today, or -1 outside of them.
+	static int cacheSlot(int epochDay) {
+		long slot = (long) epochDay - FIRST_CACHED_DAY;
+		return slot >= 0 && slot < CACHED_DAYS ? (int) slot : -1;
+	}
+}
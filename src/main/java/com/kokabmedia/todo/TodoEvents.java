@@ -0,0 +1,377 @@
+package com.kokabmedia.todo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/*
+ * This class sends the changes of the todos of a user to the list-todos.jsp pages the
+ * user has open, as Server-Sent Events on the /todo-events URL of the TodoController
+ * class. The TodoService class tells it about every added, changed and deleted todo.
+ *
+ * hello   {"list":"..."} the first event, the version of the list of the user
+ * put     {"id":4,"version":2,"list":"...","row":"<tr ...>"} a todo was added or changed
+ * delete  {"id":4,"list":"..."} a todo was deleted
+ * reset   the page missed events and has to read the list again
+ *
+ * The list version is the ETag of the todos of the user, the list-todos page adds the
+ * CSRF token of the session to it. A page that was rendered at another version than the
+ * hello event tells reads the list again, so the changes made before the page connected
+ * or while it connected again are not missed either.
+ *
+ * Every subscriber has its own buffer of at most bufferSize events. The service only
+ * puts events in the buffers, the events are written to the connections by the threads
+ * of an executor, at most one thread per subscriber at a time. When a subscriber does not
+ * keep up and its buffer is full, the buffered events are dropped and replaced by a
+ * single reset event, so a slow connection never holds more than bufferSize events and
+ * never slows down the requests that change todos.
+ *
+ * The connections are asynchronous requests, an open connection holds no thread while
+ * it waits for events. A connection is closed after timeoutSeconds and the EventSource of
+ * the page connects again.
+ *
+ * Writing an event blocks while the connection does not take any more bytes, for example
+ * when the browser stopped reading. A watchdog thread gives up a send that takes longer
+ * than sendTimeoutSeconds: the subscriber is closed and so is the output stream of its
+ * response, which ends the blocked write with an IOException and frees the sending
+ * thread, so a few stalled pages do not keep the sending threads from the pages of
+ * everyone else. Interrupting the thread would not do, a servlet container does not stop
+ * a blocking write for an interrupt. The stream is closed directly and not through the
+ * SseEmitter, whose methods wait for the monitor the blocked send holds. The page connects
+ * again and reads the list, like after a reset.
+ */
+public class TodoEvents {
+
+	private static final Log logger = LogFactory.getLog(TodoEvents.class);
+
+	private static final Event RESET = new Event("reset", "");
+
+	private final Executor executor;
+
+	private final int bufferSize;
+
+	private final long timeoutMillis;
+
+	private final long sendTimeoutNanos;
+
+	// Gives up stalled sends, null without a send timeout.
+	private final ScheduledExecutorService watchdog;
+
+	// Gives up the stalled sends the watchdog finds, a close that blocks does not hold up the watchdog.
+	private final ExecutorService closer;
+
+	// Subscribers of every user with open pages.
+	private final ConcurrentMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<String, Set<Subscriber>>();
+
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder resets = new LongAdder();
+
+	private final LongAdder stalls = new LongAdder();
+
+	// Without a send timeout, a send takes as long as the connection lets it.
+	public TodoEvents(Executor executor, int bufferSize, int timeoutSeconds) {
+		this(executor, bufferSize, timeoutSeconds, 0);
+	}
+
+	public TodoEvents(Executor executor, int bufferSize, int timeoutSeconds, int sendTimeoutSeconds) {
+		this.executor = executor;
+		this.bufferSize = bufferSize;
+		this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+		this.sendTimeoutNanos = TimeUnit.SECONDS.toNanos(sendTimeoutSeconds);
+		if (sendTimeoutSeconds > 0) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "todo-events-watchdog");
+				thread.setDaemon(true);
+				return thread;
+			});
+			// A stalled send is given up at most one and a half send timeouts after it started
+			long period = TimeUnit.SECONDS.toMillis(sendTimeoutSeconds) / 2;
+			watchdog.scheduleWithFixedDelay(this::closeStalled, period, period, TimeUnit.MILLISECONDS);
+			closer = Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "todo-events-closer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			watchdog = null;
+			closer = null;
+		}
+	}
+
+	// Stops the watchdog, called when the application context is closed.
+	public void close() {
+		if (watchdog != null) {
+			watchdog.shutdownNow();
+			closer.shutdownNow();
+		}
+	}
+
+	/*
+	 * Opens a connection for the events of a user, connection closes the output stream of
+	 * the response when a send stalls. The subscriber is added before the list version of
+	 * the hello event is read, so a change is either part of that version or sent as an
+	 * event after it.
+	 */
+	public SseEmitter subscribe(String user, Supplier<TodoVersion> version, Closeable connection) {
+		return subscribe(user, version, connection, new SseEmitter(timeoutMillis));
+	}
+
+	SseEmitter subscribe(String user, Supplier<TodoVersion> version, Closeable connection, SseEmitter emitter) {
+		Subscriber subscriber = new Subscriber(user, emitter, connection);
+		subscribers.compute(user, (name, userSubscribers) -> {
+			Set<Subscriber> set = userSubscribers == null ? new CopyOnWriteArraySet<Subscriber>() : userSubscribers;
+			set.add(subscriber);
+			return set;
+		});
+		subscriberCount.incrementAndGet();
+		emitter.onCompletion(subscriber::close);
+		emitter.onTimeout(subscriber::close);
+		subscriber.offer(new Event("hello", data(null, version.get(), user)));
+		return emitter;
+	}
+
+	// A todo of a user was added or changed, version is the list version after the change.
+	public void put(Todo todo, TodoVersion version) {
+		Set<Subscriber> userSubscribers = subscribers.get(todo.getUser());
+		if (userSubscribers == null)
+			return;
+		Map<String, Object> data = data(todo, version, todo.getUser());
+		data.put("version", todo.getVersion());
+		data.put("row", row(todo));
+		publish(userSubscribers, new Event("put", data));
+	}
+
+	public void delete(Todo todo, TodoVersion version) {
+		Set<Subscriber> userSubscribers = subscribers.get(todo.getUser());
+		if (userSubscribers != null)
+			publish(userSubscribers, new Event("delete", data(todo, version, todo.getUser())));
+	}
+
+	public int getSubscriberCount() {
+		return subscriberCount.get();
+	}
+
+	public long getSentEvents() {
+		return sent.sum();
+	}
+
+	public long getResets() {
+		return resets.sum();
+	}
+
+	public long getStalls() {
+		return stalls.sum();
+	}
+
+	private void closeStalled() {
+		long now = System.nanoTime();
+		for (Set<Subscriber> userSubscribers : subscribers.values()) {
+			for (Subscriber subscriber : userSubscribers)
+				subscriber.closeIfStalled(now);
+		}
+	}
+
+	private static void publish(Set<Subscriber> userSubscribers, Event event) {
+		for (Subscriber subscriber : userSubscribers)
+			subscriber.offer(event);
+	}
+
+	private static Map<String, Object> data(Todo todo, TodoVersion version, String user) {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		if (todo != null)
+			data.put("id", todo.getId());
+		data.put("list", version.toETag(user));
+		return data;
+	}
+
+	// The row of the table of the list-todos.jsp page, rendered once for all subscribers.
+	private static String row(Todo todo) {
+		StringWriter row = new StringWriter();
+		try {
+			new TodoRowWriter(row).writeRow(todo);
+		} catch (IOException e) {
+			throw new IllegalStateException("A StringWriter does not fail", e);
+		}
+		return row.toString();
+	}
+
+	private static class Event {
+
+		final String name;
+		final Object data;
+
+		Event(String name, Object data) {
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+	/*
+	 * One open page. The run() method writes the buffered events to the connection and is
+	 * scheduled on the executor when an event is offered and it is not scheduled yet.
+	 */
+	private class Subscriber implements Runnable {
+
+		final String user;
+		final SseEmitter emitter;
+		final Closeable connection;
+		final BlockingQueue<Event> buffer = new ArrayBlockingQueue<Event>(bufferSize);
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final AtomicBoolean closed = new AtomicBoolean();
+
+		// Set when events were dropped, the next event sent is a reset.
+		volatile boolean reset;
+
+		// The thread that sends an event and when it started, null between events.
+		volatile Thread sender;
+		volatile long sendStarted;
+
+		// Hands a send over between the thread that sends it and the closer that gives it up.
+		final ReentrantLock sending = new ReentrantLock();
+
+		Subscriber(String user, SseEmitter emitter, Closeable connection) {
+			this.user = user;
+			this.emitter = emitter;
+			this.connection = connection;
+		}
+
+		// After a drop the page reads the whole list again, the events until then are not needed.
+		void offer(Event event) {
+			if (closed.get() || reset)
+				return;
+			if (!buffer.offer(event)) {
+				buffer.clear();
+				reset = true;
+				resets.increment();
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (!scheduled.compareAndSet(false, true))
+				return;
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				emitter.complete();
+				close();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				Event event;
+				while (!closed.get() && (event = next()) != null) {
+					sendStarted = System.nanoTime();
+					sender = Thread.currentThread();
+					try {
+						emitter.send(SseEmitter.event().name(event.name).data(event.data, MediaType.APPLICATION_JSON));
+					} finally {
+						// A page whose send was given up gets no more events and connects again
+						if (!sent())
+							emitter.complete();
+					}
+					sent.increment();
+				}
+			} catch (IOException | IllegalStateException e) {
+				// The page was closed or the connection timed out
+				close();
+			} finally {
+				scheduled.set(false);
+			}
+			// An event offered while the loop ended is sent by a new run
+			if (!closed.get() && (reset || !buffer.isEmpty()))
+				schedule();
+		}
+
+		// Returns false when the watchdog gave up the send.
+		private boolean sent() {
+			sending.lock();
+			try {
+				if (sender == null)
+					return false;
+				sender = null;
+				return true;
+			} finally {
+				sending.unlock();
+			}
+		}
+
+		void closeIfStalled(long now) {
+			long started = sendStarted;
+			if (sender != null && now - started >= sendTimeoutNanos)
+				closer.execute(() -> giveUp(started));
+		}
+
+		/*
+		 * Closes the connection unless the send that started at the given time is done. The
+		 * sending thread waits for the lock before it completes the emitter, so the response
+		 * is not finished and handed to another request by the container before its stream
+		 * was closed here.
+		 */
+		private void giveUp(long started) {
+			sending.lock();
+			try {
+				if (sender == null || sendStarted != started)
+					return;
+				sender = null;
+				stalls.increment();
+				close();
+				connection.close();
+			} catch (IOException | RuntimeException e) {
+				logger.debug("Closing a stalled connection for live updates failed", e);
+			} finally {
+				sending.unlock();
+			}
+		}
+
+		private Event next() {
+			if (reset) {
+				reset = false;
+				buffer.clear();
+				return RESET;
+			}
+			return buffer.poll();
+		}
+
+		void close() {
+			if (!closed.compareAndSet(false, true))
+				return;
+			buffer.clear();
+			subscribers.computeIfPresent(user, (name, userSubscribers) -> {
+				userSubscribers.remove(this);
+				return userSubscribers.isEmpty() ? null : userSubscribers;
+			});
+			subscriberCount.decrementAndGet();
+		}
+	}
+}
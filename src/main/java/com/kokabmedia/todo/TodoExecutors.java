@@ -0,0 +1,38 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * This class creates the executor of the "virtual-threads" Spring profile, it starts a new
+ * virtual thread for every task. A virtual thread that blocks on the storage gives its
+ * carrier thread back, so the number of requests waiting for the storage at the same time
+ * is not limited by a pool of threads.
+ *
+ * Virtual threads need Java 21. The application is still compiled for Java 8, because
+ * the Spring framework version it uses cannot read newer class files when it scans for
+ * components, so the executor is created by reflection on the running Java.
+ */
+public final class TodoExecutors {
+
+	private TodoExecutors() {
+	}
+
+	// The threads are named with the prefix and a counter, like todo-virtual-7.
+	public static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+		try {
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+			ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or later, this is Java "
+					+ System.getProperty("java.version"), e);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Creating the virtual thread executor failed", e);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+
+/*
+ * This class selects todos of a user by their done flag and their target date. Every
+ * part of the filter is optional, a null part matches every todo.
+ *
+ * The date range includes both the from and the to day, the time of day is ignored like
+ * it is in the stores. A todo without a target date never matches a date range.
+ */
+public class TodoFilter {
+
+	// Matches every todo.
+	public static final TodoFilter ALL = new TodoFilter(null, null, null);
+
+	private final Boolean done;
+	private final Date from;
+	private final Date to;
+
+	// The range as epoch days, so stores can compare the days they keep directly. Without
+	// a from date the range still starts after the todos without a target date.
+	private final int fromDay;
+	private final int toDay;
+
+	public TodoFilter(Boolean done, Date from, Date to) {
+		this.done = done;
+		this.from = from;
+		this.to = to;
+		this.fromDay = from == null ? TodoDates.NO_DATE + 1 : TodoDates.toEpochDay(from);
+		this.toDay = to == null ? Integer.MAX_VALUE : TodoDates.toEpochDay(to);
+	}
+
+	public Boolean getDone() {
+		return done;
+	}
+
+	public Date getFrom() {
+		return from;
+	}
+
+	public Date getTo() {
+		return to;
+	}
+
+	public int getFromDay() {
+		return fromDay;
+	}
+
+	public int getToDay() {
+		return toDay;
+	}
+
+	public boolean hasDateRange() {
+		return from != null || to != null;
+	}
+
+	public boolean matches(Todo todo) {
+		return matches(TodoDates.toEpochDay(todo.getTargetDate()), todo.isDone());
+	}
+
+	// Matches the target date as an epoch day and the done flag of a todo.
+	public boolean matches(int epochDay, boolean isDone) {
+		if (done != null && done != isDone)
+			return false;
+		if (!hasDateRange())
+			return true;
+		return epochDay != TodoDates.NO_DATE && epochDay >= fromDay && epochDay <= toDay;
+	}
+
+	@Override
+	public String toString() {
+		return "done=" + done + ", from=" + (from == null ? "" : fromDay) + ", to=" + (to == null ? "" : toDay);
+	}
+}
@@ -0,0 +1,42 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * This class hands out the ids of new todos.
+ *
+ * Every id is taken with a single atomic increment, there is no lock and no thread ever
+ * waits for another one, so concurrent requests to add a todo always get different ids
+ * and the ids of one node only go up. Keeping the ids in one ordered sequence matters
+ * because the todos of a user are listed in the order of their ids.
+ *
+ * When todos are loaded from storage after a restart the generator is moved past the
+ * highest id the storage ever held with advancePast(), deleted todos included, so ids
+ * are never handed out twice.
+ */
+public class TodoIdGenerator {
+
+	// The last id that was handed out.
+	private final AtomicInteger lastId;
+
+	public TodoIdGenerator(int lastId) {
+		this.lastId = new AtomicInteger(lastId);
+	}
+
+	// Returns a new unique id.
+	public int nextId() {
+		return lastId.incrementAndGet();
+	}
+
+	// Makes sure that every id handed out from now on is greater than the given id.
+	public void advancePast(int id) {
+		int current = lastId.get();
+		while (current < id && !lastId.compareAndSet(current, id))
+			current = lastId.get();
+	}
+
+	// Returns the last id that was handed out.
+	public int lastId() {
+		return lastId.get();
+	}
+}
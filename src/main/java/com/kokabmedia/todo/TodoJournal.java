@@ -0,0 +1,383 @@
+package com.kokabmedia.todo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * This class writes the changes of todos to an append-only binary log on disk and reads
+ * them back when the application starts.
+ *
+ * A directory holds two files with the same record format:
+ * todos.snapshot  every todo that existed when the snapshot was taken.
+ * todos.journal   every change since the snapshot, written through a memory-mapped
+ *                 FileChannel so an append is a copy into the page cache.
+ *
+ * Each file starts with the MAGIC and VERSION ints followed by records:
+ * [int payload length][int CRC32 of the payload][payload]
+ * A payload length of 0 marks the end of the file. A record with a wrong checksum is
+ * treated as a torn write, reading stops there and the journal continues from it.
+ *
+ * Payloads start with a type byte, numbers are unsigned varints:
+ * USER    user id, length, UTF-8 name. Defines a user id for the rest of the file.
+ * PUT     todo id, user id, zigzag epoch day, flags, version if the VERSIONED flag is
+ *         set, length, UTF-8 description. Puts written before todos had versions do
+ *         not have the flag and are read with version 0.
+ * DELETE  todo id.
+ * MAX_ID  the highest todo id ever stored, written at the start of a snapshot so the
+ *         ids of todos deleted before it are not handed out again.
+ *
+ * Target dates are stored as the day in the default time zone of the server, the time
+ * of day is not kept.
+ */
+public class TodoJournal {
+
+	private static final Log logger = LogFactory.getLog(TodoJournal.class);
+
+	private static final int MAGIC = 0x544F444F;
+	private static final int VERSION = 1;
+	private static final int FILE_HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+
+	private static final byte USER = 1;
+	private static final byte PUT = 2;
+	private static final byte DELETE = 3;
+	private static final byte MAX_ID = 4;
+
+	private static final int DONE = 1;
+	private static final int NO_DATE = 2;
+	private static final int NO_DESC = 4;
+	private static final int VERSIONED = 8;
+
+	// Room needed for a record besides the UTF-8 bytes it holds.
+	private static final int MAX_RECORD_OVERHEAD = RECORD_HEADER + 2 + 5 * 5;
+
+	private final File snapshotFile;
+	private final File journalFile;
+	private final int capacity;
+
+	private FileChannel channel;
+	private MappedByteBuffer journal;
+
+	// The highest todo id read from the files.
+	private int maxId;
+
+	// User ids defined in the journal file so far.
+	private final Map<String, Integer> journalUsers = new HashMap<String, Integer>();
+
+	private final CRC32 crc = new CRC32();
+
+	public TodoJournal(File directory, int capacity) {
+		this.snapshotFile = new File(directory, "todos.snapshot");
+		this.journalFile = new File(directory, "todos.journal");
+		this.capacity = capacity;
+	}
+
+	/*
+	 * Replays the snapshot and the journal into the given repository and opens the
+	 * journal for appending after its last valid record.
+	 */
+	public void open(TodoRepository target) throws IOException {
+		Files.createDirectories(journalFile.getParentFile().toPath());
+		if (snapshotFile.exists()) {
+			// Read into the heap in one go, decoding from an array is faster than from a mapping.
+			replay(ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath())), target, "snapshot");
+		}
+
+		boolean created = !journalFile.exists();
+		channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		if (created) {
+			journal.putInt(MAGIC).putInt(VERSION);
+		} else {
+			Map<Integer, String> users = replay(journal, target, "journal");
+			for (Map.Entry<Integer, String> user : users.entrySet())
+				journalUsers.put(user.getValue(), user.getKey());
+		}
+	}
+
+	// Appends a new or changed todo, returns false when the journal is full.
+	public boolean appendPut(Todo todo) {
+		byte[] user = null;
+		Integer userId = journalUsers.get(todo.getUser());
+		if (userId == null)
+			user = todo.getUser().getBytes(StandardCharsets.UTF_8);
+		byte[] desc = todo.getDesc() == null ? null : todo.getDesc().getBytes(StandardCharsets.UTF_8);
+
+		int needed = 2 * MAX_RECORD_OVERHEAD + (user == null ? 0 : user.length) + (desc == null ? 0 : desc.length);
+		if (journal.remaining() < needed + RECORD_HEADER)
+			return false;
+
+		if (userId == null) {
+			userId = journalUsers.size();
+			journalUsers.put(todo.getUser(), userId);
+			writeUser(journal, userId, user);
+		}
+		writePut(journal, todo, userId, desc);
+		return true;
+	}
+
+	// Appends the deletion of a todo, returns false when the journal is full.
+	public boolean appendDelete(int id) {
+		if (journal.remaining() < MAX_RECORD_OVERHEAD + RECORD_HEADER)
+			return false;
+		int start = beginRecord(journal);
+		journal.put(DELETE);
+		putVarint(journal, id);
+		endRecord(journal, start);
+		return true;
+	}
+
+	/*
+	 * Replaces the snapshot with the given todos and empties the journal. The new snapshot
+	 * is written next to the old one and then moved over it, so a crash leaves either the
+	 * old or the new snapshot. Replaying the old journal on top of the new snapshot gives
+	 * the same todos, because the last change of every todo in the journal is already in
+	 * the snapshot. The snapshot also keeps the highest id ever stored.
+	 */
+	public void writeSnapshot(Collection<Todo> todos, int maxId) throws IOException {
+		File temporary = new File(snapshotFile.getPath() + ".tmp");
+		try (FileChannel snapshot = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			int start = beginRecord(buffer);
+			buffer.put(MAX_ID);
+			putVarint(buffer, maxId);
+			endRecord(buffer, start);
+			Map<String, Integer> users = new HashMap<String, Integer>();
+			for (Todo todo : todos) {
+				byte[] desc = todo.getDesc() == null ? null : todo.getDesc().getBytes(StandardCharsets.UTF_8);
+				Integer userId = users.get(todo.getUser());
+				byte[] user = userId == null ? todo.getUser().getBytes(StandardCharsets.UTF_8) : null;
+
+				int needed = 2 * MAX_RECORD_OVERHEAD + (user == null ? 0 : user.length) + (desc == null ? 0 : desc.length);
+				if (buffer.remaining() < needed)
+					buffer = drain(snapshot, buffer, needed);
+
+				if (userId == null) {
+					userId = users.size();
+					users.put(todo.getUser(), userId);
+					writeUser(buffer, userId, user);
+				}
+				writePut(buffer, todo, userId, desc);
+			}
+			drain(snapshot, buffer, 0);
+			snapshot.force(true);
+		}
+		Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		// Zero the used part of the journal so the old records end the log.
+		int used = journal.position();
+		journal.position(FILE_HEADER);
+		while (journal.position() < used)
+			journal.put((byte) 0);
+		journal.position(FILE_HEADER);
+		journal.force();
+		journalUsers.clear();
+	}
+
+	// Flushes the appended records from the page cache to the disk.
+	public void force() {
+		journal.force();
+	}
+
+	// The highest todo id in the files read by open(), deleted todos included.
+	public int getMaxId() {
+		return maxId;
+	}
+
+	// Number of journal bytes in use.
+	public int size() {
+		return journal.position();
+	}
+
+	public void close() throws IOException {
+		if (channel != null) {
+			journal.force();
+			channel.close();
+		}
+	}
+
+	// Returns the user table of the file, leaves the buffer after the last valid record.
+	private Map<Integer, String> replay(ByteBuffer buffer, TodoRepository target, String name) throws IOException {
+		Map<Integer, String> users = new HashMap<Integer, String>();
+		if (buffer.remaining() < FILE_HEADER || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IOException("The " + name + " file is not a todo " + name + " of version " + VERSION);
+
+		List<Todo> puts = new ArrayList<Todo>();
+		int records = 0;
+		while (buffer.remaining() >= RECORD_HEADER) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining() || checksum != checksum(buffer, buffer.position(), length)) {
+				buffer.position(start);
+				if (length != 0) {
+					logger.warn("The " + name + " has a torn record at byte " + start + ", replay stops there");
+					// Clear the rest so records after the torn one never follow new records.
+					if (!buffer.isReadOnly()) {
+						while (buffer.hasRemaining())
+							buffer.put((byte) 0);
+						buffer.position(start);
+					}
+				}
+				break;
+			}
+
+			int end = buffer.position() + length;
+			byte type = buffer.get();
+			if (type == USER) {
+				int userId = getVarint(buffer);
+				users.put(userId, getString(buffer));
+			} else if (type == PUT) {
+				Todo todo = readPut(buffer, users);
+				maxId = Math.max(maxId, todo.getId());
+				puts.add(todo);
+			} else if (type == DELETE) {
+				applyPuts(puts, target);
+				target.delete(getVarint(buffer));
+			} else if (type == MAX_ID) {
+				maxId = Math.max(maxId, getVarint(buffer));
+			} else {
+				throw new IOException("Unknown record type " + type + " in the " + name + " at byte " + start);
+			}
+			buffer.position(end);
+			records++;
+		}
+		applyPuts(puts, target);
+		logger.info("Replayed " + records + " records from the " + name);
+		return users;
+	}
+
+	// Consecutive puts are saved as one batch.
+	private static void applyPuts(List<Todo> puts, TodoRepository target) {
+		if (!puts.isEmpty()) {
+			target.saveAll(puts);
+			puts.clear();
+		}
+	}
+
+	private Todo readPut(ByteBuffer buffer, Map<Integer, String> users) {
+		int id = getVarint(buffer);
+		String user = users.get(getVarint(buffer));
+		int zigzag = getVarint(buffer);
+		int epochDay = (zigzag >>> 1) ^ -(zigzag & 1);
+		int flags = buffer.get();
+		int version = (flags & VERSIONED) != 0 ? getVarint(buffer) : 0;
+		String desc = (flags & NO_DESC) != 0 ? null : getString(buffer);
+		Date targetDate = (flags & NO_DATE) != 0 ? null : TodoDates.toDate(epochDay);
+		return new Todo(id, user, desc, targetDate, (flags & DONE) != 0, version);
+	}
+
+	private void writeUser(ByteBuffer buffer, int userId, byte[] user) {
+		int start = beginRecord(buffer);
+		buffer.put(USER);
+		putVarint(buffer, userId);
+		putVarint(buffer, user.length);
+		buffer.put(user);
+		endRecord(buffer, start);
+	}
+
+	private void writePut(ByteBuffer buffer, Todo todo, int userId, byte[] desc) {
+		int flags = (todo.isDone() ? DONE : 0) | (todo.getTargetDate() == null ? NO_DATE : 0)
+				| (desc == null ? NO_DESC : 0) | (todo.getVersion() != 0 ? VERSIONED : 0);
+		int epochDay = todo.getTargetDate() == null ? 0 : TodoDates.toEpochDay(todo.getTargetDate());
+
+		int start = beginRecord(buffer);
+		buffer.put(PUT);
+		putVarint(buffer, todo.getId());
+		putVarint(buffer, userId);
+		putVarint(buffer, (epochDay << 1) ^ (epochDay >> 31));
+		buffer.put((byte) flags);
+		if (todo.getVersion() != 0)
+			putVarint(buffer, todo.getVersion());
+		if (desc != null) {
+			putVarint(buffer, desc.length);
+			buffer.put(desc);
+		}
+		endRecord(buffer, start);
+	}
+
+	private static int beginRecord(ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.position(start + RECORD_HEADER);
+		return start;
+	}
+
+	// The length is written last, until then the record ends the log.
+	private void endRecord(ByteBuffer buffer, int start) {
+		int length = buffer.position() - start - RECORD_HEADER;
+		buffer.putInt(start + 4, checksum(buffer, start + RECORD_HEADER, length));
+		buffer.putInt(start, length);
+	}
+
+	private int checksum(ByteBuffer buffer, int offset, int length) {
+		int position = buffer.position();
+		int limit = buffer.limit();
+		buffer.limit(offset + length).position(offset);
+		crc.reset();
+		crc.update(buffer);
+		buffer.limit(limit).position(position);
+		return (int) crc.getValue();
+	}
+
+	// Writes the buffer to the channel, returns a buffer with at least the needed room.
+	private static ByteBuffer drain(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		return buffer.capacity() >= needed ? buffer : ByteBuffer.allocate(needed);
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = getVarint(buffer);
+		String value;
+		if (buffer.hasArray()) {
+			value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.duplicate().get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
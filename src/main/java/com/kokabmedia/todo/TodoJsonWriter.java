@@ -0,0 +1,72 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * This class writes todos as JSON with the Jackson streaming generator, one field at a
+ * time straight to an output stream, without building a tree or a string first.
+ *
+ * A todo is written as
+ * {"id":4,"user":"Ghiam","desc":"...","targetDate":1476662400000,"done":false,"version":2}
+ * with the target date in milliseconds, the same form the REST API reads.
+ */
+public class TodoJsonWriter {
+
+	// Thread-safe and expensive to create, shared by all requests.
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final JsonGenerator generator;
+
+	public TodoJsonWriter(OutputStream out) throws IOException {
+		this.generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+	}
+
+	public void writeTodo(Todo todo) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("id", todo.getId());
+		generator.writeStringField("user", todo.getUser());
+		generator.writeStringField("desc", todo.getDesc());
+		if (todo.getTargetDate() == null)
+			generator.writeNullField("targetDate");
+		else
+			generator.writeNumberField("targetDate", todo.getTargetDate().getTime());
+		generator.writeBooleanField("done", todo.isDone());
+		generator.writeNumberField("version", todo.getVersion());
+		generator.writeEndObject();
+	}
+
+	// Writes {"status":201,"todo":{...}} or {"status":404,"error":"..."}
+	public void writeResult(TodoOperationResult result) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("status", result.getStatus());
+		if (result.getTodo() != null) {
+			generator.writeFieldName("todo");
+			writeTodo(result.getTodo());
+		}
+		if (result.getError() != null)
+			generator.writeStringField("error", result.getError());
+		generator.writeEndObject();
+	}
+
+	public void writeStartArray() throws IOException {
+		generator.writeStartArray();
+	}
+
+	public void writeEndArray() throws IOException {
+		generator.writeEndArray();
+	}
+
+	// Sends what was written so far to the client.
+	public void flush() throws IOException {
+		generator.flush();
+	}
+
+	public void close() throws IOException {
+		generator.close();
+	}
+}
@@ -0,0 +1,137 @@
+package com.kokabmedia.todo;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * This class caches what the TodoService class reads for a user, the list of all todos of
+ * the user and the pages of that list, so repeated page views do not copy the todos of
+ * the user again and again.
+ *
+ * The cached values are never changed, the TodoService class invalidates every value of a
+ * user right after a todo of that user changed. Values also expire after a fixed time and
+ * at most maxUsers users are cached, when there are more the user whose values are the
+ * oldest among a small sample is evicted.
+ *
+ * A value loaded while a change of the same user was in progress could miss that change,
+ * so every invalidation bumps a generation counter and a loaded value is only cached when
+ * the generation did not change since the load started. The counters are striped over
+ * the users, a change of one user only stops the caching of the few users sharing a stripe.
+ */
+public class TodoListCache {
+
+	private static final int STRIPES = 64;
+	private static final int EVICTION_SAMPLE = 8;
+
+	// Pages of a user that are cached at most, the first pages are the ones asked for most.
+	private static final int MAX_VALUES_PER_USER = 16;
+
+	private final int maxUsers;
+	private final long timeToLiveNanos;
+
+	private final ConcurrentMap<String, UserValues> users = new ConcurrentHashMap<String, UserValues>();
+	private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public TodoListCache(int maxUsers, long timeToLiveSeconds) {
+		this.maxUsers = maxUsers;
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	// Returns the cached value of a user with that key, or loads and caches it.
+	@SuppressWarnings("unchecked")
+	public <T> T get(String user, String key, Supplier<T> loader) {
+		long now = System.nanoTime();
+		UserValues values = users.get(user);
+		if (values != null && !values.isExpired(now)) {
+			Object value = values.values.get(key);
+			if (value != null) {
+				hits.increment();
+				return (T) value;
+			}
+		}
+
+		misses.increment();
+		int stripe = stripe(user);
+		long generation = generations.get(stripe);
+		final T loaded = loader.get();
+		users.compute(user, (name, current) -> {
+			if (generations.get(stripe) != generation)
+				return current;
+			if (current == null || current.isExpired(now))
+				current = new UserValues(now + timeToLiveNanos);
+			if (current.values.size() < MAX_VALUES_PER_USER)
+				current.values.put(key, loaded);
+			return current;
+		});
+		if (users.size() > maxUsers)
+			evict();
+		return loaded;
+	}
+
+	// Drops every cached value of a user, call it after a todo of the user changed.
+	public void invalidate(String user) {
+		generations.incrementAndGet(stripe(user));
+		users.remove(user);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	// Number of users with cached values.
+	public int size() {
+		return users.size();
+	}
+
+	// Removes the oldest values of a sample of the users.
+	private void evict() {
+		String oldest = null;
+		long oldestExpiry = 0;
+		Iterator<ConcurrentMap.Entry<String, UserValues>> sample = users.entrySet().iterator();
+		for (int i = 0; i < EVICTION_SAMPLE && sample.hasNext(); i++) {
+			ConcurrentMap.Entry<String, UserValues> entry = sample.next();
+			if (oldest == null || entry.getValue().expiresAt - oldestExpiry < 0) {
+				oldest = entry.getKey();
+				oldestExpiry = entry.getValue().expiresAt;
+			}
+		}
+		if (oldest != null && users.remove(oldest) != null)
+			evictions.increment();
+	}
+
+	private static int stripe(String user) {
+		int hash = user.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+
+	private static class UserValues {
+
+		final long expiresAt;
+		final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+		UserValues(long expiresAt) {
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.kokabmedia.metrics.MetricsRegistry;
+
+/*
+ * This class adds the sizes of the todo storage and the counts of the TodoListCache to the
+ * MetricsRegistry, the counts of the live updates of the TodoEvents class, and the counts
+ * of the writer when the todos are written behind to a database. The values are read when a scraper asks for the metrics.
+ */
+@Component
+public class TodoMetrics {
+
+	@Autowired
+	public TodoMetrics(MetricsRegistry registry, TodoRepository repository, TodoListCache cache,
+			TodoEvents events) {
+		registry.gauge("todo_store_todos", "Stored todos.", "gauge", repository::size);
+		registry.gauge("todo_cache_users", "Users with cached lists of todos.", "gauge", cache::size);
+		registry.gauge("todo_cache_hits_total", "Lists of todos answered from the cache.", "counter",
+				cache::getHits);
+		registry.gauge("todo_cache_misses_total", "Lists of todos read from the storage.", "counter",
+				cache::getMisses);
+		registry.gauge("todo_cache_evictions_total", "Users dropped from the full cache.", "counter",
+				cache::getEvictions);
+		registry.gauge("todo_event_subscribers", "List pages connected for live updates.", "gauge",
+				events::getSubscriberCount);
+		registry.gauge("todo_events_sent_total", "Live updates sent to the list pages.", "counter",
+				events::getSentEvents);
+		registry.gauge("todo_event_resets_total", "Slow list pages that dropped their updates.", "counter",
+				events::getResets);
+		registry.gauge("todo_event_stalls_total", "List pages closed because a live update did not go out in time.",
+				"counter", events::getStalls);
+		if (repository instanceof WriteBehindTodoRepository) {
+			WriteBehindTodoRepository writeBehind = (WriteBehindTodoRepository) repository;
+			registry.gauge("todo_write_behind_queue_depth", "Changes waiting for the writer.", "gauge",
+					writeBehind::getQueueDepth);
+			registry.gauge("todo_write_behind_flushes_total", "Batches written to the database.", "counter",
+					writeBehind::getFlushCount);
+			registry.gauge("todo_write_behind_changes_total", "Changes written to the database.", "counter",
+					writeBehind::getFlushedChanges);
+			registry.gauge("todo_write_behind_failures_total", "Batches that failed to be written.", "counter",
+					writeBehind::getFlushFailures);
+			registry.gauge("todo_write_behind_dead_letters_total", "Changes the database refused, they are not written.",
+					"counter", writeBehind::getDeadLetters);
+			// The sum divided by the count is the average time to write a batch
+			registry.gauge("todo_write_behind_flush_seconds_sum", "Time spent writing batches.", "counter",
+					() -> writeBehind.getFlushTimeTotalNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+			registry.gauge("todo_write_behind_flush_seconds_count", "Batches written to the database.", "counter",
+					writeBehind::getFlushCount);
+			registry.gauge("todo_write_behind_flush_seconds_max", "Longest time to write a batch.", "gauge",
+					() -> writeBehind.getFlushTimeMaxNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+}
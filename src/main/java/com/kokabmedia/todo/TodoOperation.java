@@ -0,0 +1,53 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+
+/*
+ * This class is one operation of a batch sent to the /api/todos/batch URL.
+ *
+ * The op field is "create", "update" or "delete". Update and delete need the id of the
+ * todo, create and update use desc, targetDate and done like a single todo does.
+ */
+public class TodoOperation {
+
+	public static final String CREATE = "create";
+	public static final String UPDATE = "update";
+	public static final String DELETE = "delete";
+
+	private String op;
+	private Integer id;
+	private String desc;
+	private Date targetDate;
+	private boolean done;
+
+	public String getOp() {
+		return op;
+	}
+	public void setOp(String op) {
+		this.op = op;
+	}
+	public Integer getId() {
+		return id;
+	}
+	public void setId(Integer id) {
+		this.id = id;
+	}
+	public String getDesc() {
+		return desc;
+	}
+	public void setDesc(String desc) {
+		this.desc = desc;
+	}
+	public Date getTargetDate() {
+		return targetDate;
+	}
+	public void setTargetDate(Date targetDate) {
+		this.targetDate = targetDate;
+	}
+	public boolean isDone() {
+		return done;
+	}
+	public void setDone(boolean done) {
+		this.done = done;
+	}
+}
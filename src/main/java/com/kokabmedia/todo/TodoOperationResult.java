@@ -0,0 +1,42 @@
+package com.kokabmedia.todo;
+
+/*
+ * This class is the outcome of one operation of a batch. The status is the HTTP status
+ * the operation would have had on its own: 201 created, 200 updated, 204 deleted, 400 for
+ * an invalid operation, 404 for a todo that does not exist or belongs to another user and
+ * 409 for a todo that another request changed while the batch was applied.
+ */
+public class TodoOperationResult {
+
+	private final int status;
+	private final Todo todo;
+	private final String error;
+
+	private TodoOperationResult(int status, Todo todo, String error) {
+		this.status = status;
+		this.todo = todo;
+		this.error = error;
+	}
+
+	public static TodoOperationResult success(int status, Todo todo) {
+		return new TodoOperationResult(status, todo, null);
+	}
+
+	public static TodoOperationResult failure(int status, String error) {
+		return new TodoOperationResult(status, null, error);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	// The created or updated todo, null for deletes and failures.
+	public Todo getTodo() {
+		return todo;
+	}
+
+	// Why the operation failed, null when it succeeded.
+	public String getError() {
+		return error;
+	}
+}
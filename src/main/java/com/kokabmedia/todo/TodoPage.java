@@ -0,0 +1,37 @@
+package com.kokabmedia.todo;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * This class is one page of the todos of a user, sorted by target date or description
+ * and then by id.
+ *
+ * The previous cursor is set when there are todos before this page and the next cursor
+ * when there are todos after it, they are passed back to get the neighbouring pages.
+ * A page cannot be changed, so it can be cached and shared between requests.
+ */
+public class TodoPage {
+
+	private final List<Todo> todos;
+	private final TodoCursor previous;
+	private final TodoCursor next;
+
+	public TodoPage(List<Todo> todos, TodoCursor previous, TodoCursor next) {
+		this.todos = Collections.unmodifiableList(todos);
+		this.previous = previous;
+		this.next = next;
+	}
+
+	public List<Todo> getTodos() {
+		return todos;
+	}
+
+	public TodoCursor getPrevious() {
+		return previous;
+	}
+
+	public TodoCursor getNext() {
+		return next;
+	}
+}
@@ -0,0 +1,53 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+
+/*
+ * This class is the JSON body of a PATCH request to the /api/todos/{id} URL, it changes
+ * some fields of a todo and leaves the others as they are.
+ *
+ * A field that is missing or null is not changed, for example {"done":true} only marks
+ * the todo done. With a version the todo is only changed if it still has that version.
+ */
+public class TodoPatch {
+
+	private String desc;
+	private Date targetDate;
+	private Boolean done;
+	private Integer version;
+
+	public String getDesc() {
+		return desc;
+	}
+	public void setDesc(String desc) {
+		this.desc = desc;
+	}
+	public Date getTargetDate() {
+		return targetDate;
+	}
+	public void setTargetDate(Date targetDate) {
+		this.targetDate = targetDate;
+	}
+	public Boolean getDone() {
+		return done;
+	}
+	public void setDone(Boolean done) {
+		this.done = done;
+	}
+	public Integer getVersion() {
+		return version;
+	}
+	public void setVersion(Integer version) {
+		this.version = version;
+	}
+
+	// Copies the fields that are set to a todo.
+	public void applyTo(Todo todo) {
+		if (desc != null)
+			todo.setDesc(desc);
+		if (targetDate != null)
+			todo.setTargetDate(targetDate);
+		if (done != null)
+			todo.setDone(done);
+	}
+}
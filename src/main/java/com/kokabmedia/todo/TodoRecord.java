@@ -0,0 +1,114 @@
+package com.kokabmedia.todo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+/*
+ * This class is the compact form in which the InMemoryTodoRepository class keeps a todo.
+ *
+ * A Todo bean holds a String for the user, a Date object for the target date and a String
+ * for the description, three extra objects for every todo. A record holds the id of the
+ * user in a TodoUsers table, the target date as an epoch day and the description as UTF-8
+ * bytes, which is a single byte per character for most descriptions.
+ *
+ * Records are never changed, a changed todo is stored as a new record. The version fits in
+ * the padding of the object, a record takes 40 bytes with or without it. A Todo bean is only
+ * made from a record when a todo is read, for the views, the REST API and the forms.
+ */
+public final class TodoRecord {
+
+	// Sorts records by target date and id, the order of TodoSort.DATE.
+	public static final Comparator<TodoRecord> DATE_ORDER = (first, second) -> {
+		int byDay = Integer.compare(first.targetDay, second.targetDay);
+		return byDay != 0 ? byDay : Integer.compare(first.id, second.id);
+	};
+
+	// Sorts records by description and id, the order of TodoSort.DESC.
+	public static final Comparator<TodoRecord> DESC_ORDER = (first, second) -> {
+		int byDesc = compareDesc(first.desc, second.desc);
+		return byDesc != 0 ? byDesc : Integer.compare(first.id, second.id);
+	};
+
+	private final int id;
+	private final int userId;
+	private final int targetDay;
+	private final byte[] desc;
+	private final boolean done;
+	private final int version;
+
+	public TodoRecord(int id, int userId, int targetDay, byte[] desc, boolean done) {
+		this(id, userId, targetDay, desc, done, 0);
+	}
+
+	public TodoRecord(int id, int userId, int targetDay, byte[] desc, boolean done, int version) {
+		this.id = id;
+		this.userId = userId;
+		this.targetDay = targetDay;
+		this.desc = desc;
+		this.done = done;
+		this.version = version;
+	}
+
+	// The record of a todo, a user that is new to the table gets an id.
+	public static TodoRecord of(Todo todo, TodoUsers users) {
+		return of(todo, users, todo.getVersion());
+	}
+
+	// The record of a todo with another version than the bean.
+	public static TodoRecord of(Todo todo, TodoUsers users, int version) {
+		byte[] desc = todo.getDesc() == null ? null : todo.getDesc().getBytes(StandardCharsets.UTF_8);
+		return new TodoRecord(todo.getId(), users.idOf(todo.getUser()), TodoDates.toEpochDay(todo.getTargetDate()),
+				desc, todo.isDone(), version);
+	}
+
+	// A new Todo bean with the values of this record.
+	public Todo toTodo(TodoUsers users) {
+		return new Todo(id, users.nameOf(userId), getDesc(), TodoDates.toDate(targetDay), done, version);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	// The target date as an epoch day, or TodoDates.NO_DATE.
+	public int getTargetDay() {
+		return targetDay;
+	}
+
+	public String getDesc() {
+		return desc == null ? null : new String(desc, StandardCharsets.UTF_8);
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/*
+	 * Compares two UTF-8 descriptions without decoding them. The bytes of ASCII letters are
+	 * compared as lower case, all other bytes as they are, which sorts characters by their
+	 * code point. A missing description comes first.
+	 */
+	public static int compareDesc(byte[] first, byte[] second) {
+		if (first == null || second == null)
+			return first == null ? (second == null ? 0 : -1) : 1;
+		int length = Math.min(first.length, second.length);
+		for (int i = 0; i < length; i++) {
+			int difference = lowerCase(first[i]) - lowerCase(second[i]);
+			if (difference != 0)
+				return difference;
+		}
+		return first.length - second.length;
+	}
+
+	private static int lowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xFF;
+	}
+}
@@ -0,0 +1,117 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * This interface describes where the todos of the application are stored.
+ *
+ * The TodoService class only talks to this interface, so the storage can be swapped in
+ * the todo-servlet.xml file without touching the service or the controllers. The todos
+ * of a user are always returned in the order of their ids.
+ */
+public interface TodoRepository {
+
+	// Returns every stored todo in the order of their ids.
+	List<Todo> findAll();
+
+	// Returns the todos of a specific user.
+	List<Todo> findByUser(String user);
+
+	/*
+	 * Returns up to size todos of a user that match a filter, sorted by target date or
+	 * description and then id, starting right after the after cursor or ending right before
+	 * the before cursor. Without a cursor the first page is returned.
+	 *
+	 * This default sorts all matching todos of the user, repositories with indexes on the
+	 * target date or description override it.
+	 */
+	default TodoPage findPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before,
+			int size) {
+		List<Todo> todos = findByFilter(user, filter);
+		Collections.sort(todos, (first, second) -> TodoCursor.of(first, sort).compareTo(TodoCursor.of(second, sort)));
+		List<TodoCursor> cursors = new ArrayList<TodoCursor>(todos.size());
+		for (Todo todo : todos)
+			cursors.add(TodoCursor.of(todo, sort));
+
+		int from = 0;
+		int to = todos.size();
+		if (before != null) {
+			int position = Collections.binarySearch(cursors, before);
+			to = position >= 0 ? position : -position - 1;
+			from = Math.max(0, to - size);
+		} else {
+			if (after != null) {
+				int position = Collections.binarySearch(cursors, after);
+				from = position >= 0 ? position + 1 : -position - 1;
+			}
+			to = Math.min(todos.size(), from + size);
+		}
+		if (from >= to)
+			return new TodoPage(new ArrayList<Todo>(), null, null);
+		return new TodoPage(new ArrayList<Todo>(todos.subList(from, to)), from > 0 ? cursors.get(from) : null,
+				to < todos.size() ? cursors.get(to - 1) : null);
+	}
+
+	// Returns a page of all todos of a user sorted by target date.
+	default TodoPage findPage(String user, TodoCursor after, TodoCursor before, int size) {
+		return findPage(user, TodoFilter.ALL, TodoSort.DATE, after, before, size);
+	}
+
+	/*
+	 * Returns the todos of a user that match a filter, in the order of their ids.
+	 *
+	 * This default filters all todos of the user, repositories that can test the filter
+	 * without making a Todo of every stored todo override it.
+	 */
+	default List<Todo> findByFilter(String user, TodoFilter filter) {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (Todo todo : findByUser(user)) {
+			if (filter.matches(todo))
+				todos.add(todo);
+		}
+		return todos;
+	}
+
+	// Returns a specific todo or null when there is no todo with that id.
+	Todo findById(int id);
+
+	// Stores a new todo or replaces the stored todo with the same id.
+	void save(Todo todo);
+
+	/*
+	 * Replaces a stored todo in place if it still has the expected version, in one atomic
+	 * step. The todo is stored with the next version, which is also set on the bean. Returns
+	 * false when the todo was changed or deleted since it was read, nothing is stored then.
+	 */
+	boolean update(Todo todo, int expectedVersion);
+
+	// Stores or replaces many todos at once.
+	void saveAll(Collection<Todo> todos);
+
+	// Removes a specific todo, nothing happens when there is no todo with that id.
+	void delete(int id);
+
+	/*
+	 * Removes a stored todo if it still has the expected version, in one atomic step.
+	 * Returns false when the todo was changed or deleted since it was read.
+	 */
+	boolean delete(int id, int expectedVersion);
+
+	// Removes many todos at once.
+	void deleteAll(Collection<Integer> ids);
+
+	/*
+	 * Returns the highest id that was ever stored, deleted todos included, or 0 when nothing
+	 * was stored. The ids of new todos start after it, a durable repository remembers it
+	 * across restarts so the id of a deleted todo is never handed out again.
+	 */
+	int maxId();
+
+	// Returns the number of stored todos, repositories that keep a count override it.
+	default int size() {
+		return findAll().size();
+	}
+}
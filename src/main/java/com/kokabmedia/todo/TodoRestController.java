@@ -0,0 +1,272 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * This class is the REST API for the todos of the logged in user, for clients that want
+ * JSON instead of the JSP views of the TodoController class.
+ *
+ * The @RestController annotation is a @Controller whose methods all behave as if they
+ * had the @ResponseBody annotation, what they return or write is the response itself and
+ * not the name of a view.
+ *
+ * GET    /api/todos       all todos of the user sorted by target date, streamed
+ * GET    /api/todos/{id}  a specific todo
+ * GET    /api/todos/search?q=words&limit=n  todos whose description has words starting
+ *                         with every word of q, in the order of their ids
+ * POST   /api/todos       creates a todo from a JSON body, answers 201 with the new todo
+ * PUT    /api/todos/{id}  replaces a todo with a JSON body, a body with the version that
+ *                         was read answers 409 when the todo changed since
+ * PATCH  /api/todos/{id}  changes only the fields of a JSON body described in the
+ *                         TodoPatch class, for example {"done":true}
+ * DELETE /api/todos/{id}  deletes a todo, answers 204
+ * POST   /api/todos/batch many create, update and delete operations in one request
+ *
+ * Todos of other users are answered with 404 as if they did not exist. The JSON form of a
+ * todo is described in the TodoJsonWriter class.
+ */
+@RestController
+@RequestMapping("/api/todos")
+public class TodoRestController {
+
+	// Number of todos read from the service and written to the client at a time.
+	static final int STREAM_PAGE_SIZE = 500;
+
+	// Number of search results returned when the request does not ask for another limit.
+	static final int DEFAULT_SEARCH_LIMIT = 100;
+
+	// Largest number of operations accepted in one batch.
+	static final int MAX_BATCH_SIZE = 10000;
+
+	private static final String DESC_REQUIRED = "desc is required and has at most " + Todo.MAX_DESC_LENGTH
+			+ " characters";
+
+	@Autowired
+	TodoService service;
+
+	/*
+	 * The todos are read one page at a time and each page is flushed to the client before
+	 * the next one is read, so the heap only ever holds one page no matter how many todos
+	 * the user has. The response has no content length and is sent in chunks.
+	 */
+	@RequestMapping(method = RequestMethod.GET)
+	public void listTodos(HttpServletResponse response) throws IOException {
+		String user = retrieveLoggedInUserName();
+		response.setContentType("application/json;charset=UTF-8");
+
+		TodoJsonWriter writer = new TodoJsonWriter(response.getOutputStream());
+		writer.writeStartArray();
+		TodoCursor after = null;
+		do {
+			TodoPage page = service.retrieveTodoPage(user, after, null, STREAM_PAGE_SIZE);
+			for (Todo todo : page.getTodos())
+				writer.writeTodo(todo);
+			writer.flush();
+			after = page.getNext();
+		} while (after != null);
+		writer.writeEndArray();
+		writer.close();
+	}
+
+	@RequestMapping(value = "/search", method = RequestMethod.GET)
+	public void searchTodos(@RequestParam String q, @RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit,
+			HttpServletResponse response) throws IOException {
+		List<Todo> todos = service.searchTodos(retrieveLoggedInUserName(), q, Math.max(0, limit));
+		response.setContentType("application/json;charset=UTF-8");
+		TodoJsonWriter writer = new TodoJsonWriter(response.getOutputStream());
+		writer.writeStartArray();
+		for (Todo todo : todos)
+			writer.writeTodo(todo);
+		writer.writeEndArray();
+		writer.close();
+	}
+
+	@RequestMapping(value = "/{id}", method = RequestMethod.GET)
+	public void getTodo(@PathVariable int id, HttpServletResponse response) throws IOException {
+		Todo todo = retrieveOwnTodo(id);
+		if (todo == null)
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		else
+			writeTodo(response, HttpServletResponse.SC_OK, todo);
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public void createTodo(@RequestBody Todo todo, HttpServletResponse response) throws IOException {
+		if (!Todo.isValidDesc(todo.getDesc())) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, DESC_REQUIRED);
+			return;
+		}
+		Date targetDate = todo.getTargetDate() == null ? new Date() : todo.getTargetDate();
+		Todo created = service.addTodo(retrieveLoggedInUserName(), todo.getDesc(), targetDate, todo.isDone());
+		response.setHeader("Location", "/api/todos/" + created.getId());
+		writeTodo(response, HttpServletResponse.SC_CREATED, created);
+	}
+
+	/*
+	 * Without a version the todo is replaced whatever its version is, with a version the
+	 * request fails with 409 when the todo changed since the client read it. Both store the
+	 * todo with a compare and set on the version, so a todo deleted after it was read is
+	 * answered with 404 and not stored again.
+	 */
+	@RequestMapping(value = "/{id}", method = RequestMethod.PUT)
+	public void updateTodo(@PathVariable int id, @RequestBody Todo todo, HttpServletResponse response)
+			throws IOException {
+		if (!Todo.isValidDesc(todo.getDesc())) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, DESC_REQUIRED);
+			return;
+		}
+		String user = retrieveLoggedInUserName();
+		Todo updated;
+		if (todo.getVersion() == 0) {
+			updated = service.changeTodo(id, user, stored -> {
+				stored.setDesc(todo.getDesc());
+				stored.setTargetDate(todo.getTargetDate());
+				stored.setDone(todo.isDone());
+			});
+		} else {
+			Todo current = retrieveOwnTodo(id);
+			if (current != null) {
+				todo.setId(id);
+				todo.setUser(user);
+				if (current.getVersion() != todo.getVersion() || !service.updateTodo(todo, current.getVersion(), user)) {
+					// Deleted since it was read, or changed by another request
+					if (retrieveOwnTodo(id) != null)
+						response.sendError(HttpServletResponse.SC_CONFLICT, "todo " + id
+								+ " is no longer at version " + todo.getVersion());
+					else
+						response.sendError(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+			}
+			updated = current == null ? null : todo;
+		}
+		if (updated == null)
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		else
+			writeTodo(response, HttpServletResponse.SC_OK, updated);
+	}
+
+	/*
+	 * Without a version the fields are applied to whatever is stored by the changeTodo()
+	 * method of the service, with a version the request fails with 409 when the todo
+	 * changed since the client read it and with 404 when it was deleted, like a PUT.
+	 */
+	@RequestMapping(value = "/{id}", method = RequestMethod.PATCH)
+	public void patchTodo(@PathVariable int id, @RequestBody TodoPatch patch, HttpServletResponse response)
+			throws IOException {
+		if (patch.getDesc() != null && !Todo.isValidDesc(patch.getDesc())) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "desc cannot be empty or longer than "
+					+ Todo.MAX_DESC_LENGTH + " characters");
+			return;
+		}
+		String user = retrieveLoggedInUserName();
+		Todo todo;
+		if (patch.getVersion() == null) {
+			todo = service.changeTodo(id, user, patch::applyTo);
+		} else {
+			todo = retrieveOwnTodo(id);
+			if (todo != null) {
+				patch.applyTo(todo);
+				if (todo.getVersion() != patch.getVersion() || !service.updateTodo(todo, patch.getVersion(), user)) {
+					// Deleted since it was read, or changed by another request
+					if (retrieveOwnTodo(id) != null)
+						response.sendError(HttpServletResponse.SC_CONFLICT, "todo " + id
+								+ " is no longer at version " + patch.getVersion());
+					else
+						response.sendError(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+			}
+		}
+		if (todo == null)
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		else
+			writeTodo(response, HttpServletResponse.SC_OK, todo);
+	}
+
+	@RequestMapping(value = "/{id}", method = RequestMethod.DELETE)
+	public void deleteTodo(@PathVariable int id, HttpServletResponse response) throws IOException {
+		// The owner is checked by the service right before the todo is deleted
+		if (service.deleteTodo(id, retrieveLoggedInUserName()))
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		else
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+	}
+
+	/*
+	 * Takes a JSON array of operations as described in the TodoOperation class and answers
+	 * with a JSON array holding the result of every operation at the same position. The
+	 * request succeeds as a whole, each result has the status of its own operation.
+	 *
+	 * The batch is not applied in one transaction but todo by todo. When another request
+	 * changed a todo in the meantime, the operations on it fail with 409 and the changes
+	 * of the other todos are stored anyway.
+	 */
+	@RequestMapping(value = "/batch", method = RequestMethod.POST)
+	public void applyBatch(@RequestBody List<TodoOperation> operations, HttpServletResponse response)
+			throws IOException {
+		if (operations.size() > MAX_BATCH_SIZE) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + MAX_BATCH_SIZE + " operations");
+			return;
+		}
+		List<TodoOperationResult> results = service.applyBatch(retrieveLoggedInUserName(), operations);
+
+		response.setContentType("application/json;charset=UTF-8");
+		TodoJsonWriter writer = new TodoJsonWriter(response.getOutputStream());
+		writer.writeStartArray();
+		for (TodoOperationResult result : results)
+			writer.writeResult(result);
+		writer.writeEndArray();
+		writer.close();
+	}
+
+	// A body that is not a JSON todo is a client error and not an error page.
+	@ExceptionHandler(HttpMessageNotReadableException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void handleUnreadableTodo() {
+	}
+
+	// Returns the todo with the id if it belongs to the logged in user, otherwise null
+	private Todo retrieveOwnTodo(int id) {
+		Todo todo = service.retrieveTodo(id);
+		if (todo == null || !todo.getUser().equals(retrieveLoggedInUserName()))
+			return null;
+		return todo;
+	}
+
+	private void writeTodo(HttpServletResponse response, int status, Todo todo) throws IOException {
+		response.setStatus(status);
+		response.setContentType("application/json;charset=UTF-8");
+		TodoJsonWriter writer = new TodoJsonWriter(response.getOutputStream());
+		writer.writeTodo(todo);
+		writer.close();
+	}
+
+	// Get user information from login form
+	private String retrieveLoggedInUserName() {
+		Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+
+		if (principal instanceof UserDetails)
+			return ((UserDetails) principal).getUsername();
+
+		return principal.toString();
+	}
+}
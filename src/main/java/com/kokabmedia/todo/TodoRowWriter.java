@@ -0,0 +1,95 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/*
+ * This class writes todos as the rows of the table of the list-todos.jsp page, straight
+ * to the buffered writer of the response. The TodoRowsTag class uses it for the whole
+ * table body, so the page does not evaluate expressions or create a date format for
+ * every row, the dates are written with the shared TodoDateFormatter of the forms.
+ *
+ * A row looks like the rows the page wrote with c:forEach and fmt:formatDate, except that
+ * the description is escaped for HTML and the done flag is a checkbox. The TodoController
+ * class also sends a single row to the script of the page after a todo was added or
+ * toggled, and the TodoEvents class sends one with every change of a todo.
+ *
+ * The tr element carries the id and the version of the todo, so the script finds the row
+ * of a todo and keeps a newer row when an older one arrives late.
+ */
+public class TodoRowWriter {
+
+	private final Writer out;
+
+	public TodoRowWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void writeRows(Iterable<Todo> todos) throws IOException {
+		for (Todo todo : todos)
+			writeRow(todo);
+	}
+
+	public void writeRow(Todo todo) throws IOException {
+		String id = Integer.toString(todo.getId());
+		out.write("<tr data-id=\"");
+		out.write(id);
+		out.write("\" data-version=\"");
+		out.write(Integer.toString(todo.getVersion()));
+		out.write("\"><td>");
+		writeEscaped(todo.getDesc());
+		out.write("</td><td>");
+		writeDate(todo.getTargetDate());
+		out.write("</td><td>");
+		out.write("<input type=\"checkbox\" class=\"todo-done\" data-id=\"");
+		out.write(id);
+		out.write(todo.isDone() ? "\" checked=\"checked\" />" : "\" />");
+		out.write("</td><td><a type=\"button\" class=\"btn btn-primary\" href=\"/update-todo?id=");
+		out.write(id);
+		out.write("\">Edit</a> <a type=\"button\" class=\"btn btn-warning todo-delete\" data-id=\"");
+		out.write(id);
+		out.write("\" href=\"/delete-todo?id=");
+		out.write(id);
+		out.write("\">Delete</a></td></tr>\n");
+	}
+
+	// Nothing is written for a todo without a target date, like fmt:formatDate does.
+	private void writeDate(Date date) throws IOException {
+		if (date != null)
+			out.write(TodoDateFormatter.formatDate(date));
+	}
+
+	// Writes the runs between the special characters at once.
+	private void writeEscaped(String text) throws IOException {
+		if (text == null)
+			return;
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			String entity;
+			switch (text.charAt(i)) {
+			case '&':
+				entity = "&amp;";
+				break;
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '"':
+				entity = "&#034;";
+				break;
+			case '\'':
+				entity = "&#039;";
+				break;
+			default:
+				continue;
+			}
+			out.write(text, start, i - start);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(text, start, text.length() - start);
+	}
+}
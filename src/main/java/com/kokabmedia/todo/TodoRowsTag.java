@@ -0,0 +1,26 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.jsp.tagext.SimpleTagSupport;
+
+/*
+ * This class is the <todo:rows todos="${todos}" /> tag of the list-todos.jsp page, it is
+ * declared in the WEB-INF/todo.tld file. It writes the rows of the table with a
+ * TodoRowWriter to the buffered JSP writer of the response.
+ */
+public class TodoRowsTag extends SimpleTagSupport {
+
+	private List<Todo> todos;
+
+	public void setTodos(List<Todo> todos) {
+		this.todos = todos;
+	}
+
+	@Override
+	public void doTag() throws IOException {
+		if (todos != null)
+			new TodoRowWriter(getJspContext().getOut()).writeRows(todos);
+	}
+}
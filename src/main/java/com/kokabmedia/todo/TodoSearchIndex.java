@@ -0,0 +1,253 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/*
+ * This class is an inverted index over the descriptions of the todos, it finds the todos
+ * of a user whose description has words starting with the words of a query.
+ *
+ * A description is split into tokens, runs of letters and digits in lower case. Every user
+ * has a sorted map from each of their tokens to the sorted ids of the todos having it, so
+ * all tokens with a prefix are one range of the map. A query with several words finds
+ * the todos that have a token starting with each of the words.
+ *
+ * The TodoService class keeps the index up to date with every change of a todo, it only
+ * touches the tokens of the changed description. Changes of the same todo made side by
+ * side can reach the index in another order than they were stored. So the index is not
+ * told what changed but reads the todo as it is stored right now, one todo at a time, and
+ * keeps the user, description and version it indexed for every todo. Whichever change
+ * comes last, the index ends up with the words of the stored todo.
+ */
+public class TodoSearchIndex {
+
+	private static final int[] NO_IDS = new int[0];
+
+	private final ConcurrentMap<String, UserIndex> users = new ConcurrentHashMap<String, UserIndex>();
+
+	// The todo as it was indexed, by id.
+	private final ConcurrentMap<Integer, Indexed> indexed = new ConcurrentHashMap<Integer, Indexed>();
+
+	/*
+	 * Indexes a todo as it is stored now, stored returns the todo or null when it was
+	 * deleted. It is called while no other change of the same id is applied to the index,
+	 * so it reads the latest stored todo after every change that came before.
+	 */
+	public void sync(int id, Supplier<Todo> stored) {
+		indexed.compute(id, (key, current) -> {
+			Todo todo = stored.get();
+			if (current != null && current.matches(todo))
+				return current;
+			if (current != null)
+				userIndex(current.user).remove(id, tokens(current.desc));
+			if (todo == null)
+				return null;
+			Set<String> tokens = tokens(todo.getDesc());
+			if (!tokens.isEmpty())
+				userIndex(todo.getUser()).add(id, tokens);
+			return new Indexed(todo);
+		});
+	}
+
+	// The ids of the todos of a user that match every word of a query, in ascending order.
+	public int[] search(String user, String query) {
+		UserIndex userIndex = users.get(user);
+		Set<String> words = tokens(query);
+		if (userIndex == null || words.isEmpty())
+			return NO_IDS;
+		return userIndex.search(words);
+	}
+
+	// The distinct tokens of a text in the order they appear.
+	public static Set<String> tokens(String text) {
+		Set<String> tokens = new LinkedHashSet<String>();
+		if (text == null)
+			return tokens;
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letterOrDigit && start < 0) {
+				start = i;
+			} else if (!letterOrDigit && start >= 0) {
+				tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private UserIndex userIndex(String user) {
+		UserIndex userIndex = users.get(user);
+		if (userIndex == null) {
+			UserIndex created = new UserIndex();
+			userIndex = users.putIfAbsent(user, created);
+			if (userIndex == null)
+				userIndex = created;
+		}
+		return userIndex;
+	}
+
+	private static class Indexed {
+
+		final String user;
+		final String desc;
+		final int version;
+
+		Indexed(Todo todo) {
+			this.user = todo.getUser();
+			this.desc = todo.getDesc();
+			this.version = todo.getVersion();
+		}
+
+		// Whether a stored todo has the words this todo was indexed with.
+		boolean matches(Todo todo) {
+			return todo != null && version == todo.getVersion() && user.equals(todo.getUser())
+					&& Objects.equals(desc, todo.getDesc());
+		}
+	}
+
+	// The tokens of a single user, every user has its own read write lock like in the stores.
+	private static class UserIndex {
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		private final NavigableMap<String, Postings> postings = new TreeMap<String, Postings>();
+
+		void add(int id, Collection<String> tokens) {
+			lock.writeLock().lock();
+			try {
+				for (String token : tokens) {
+					Postings ids = postings.get(token);
+					if (ids == null) {
+						ids = new Postings();
+						postings.put(token, ids);
+					}
+					ids.add(id);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void remove(int id, Collection<String> tokens) {
+			lock.writeLock().lock();
+			try {
+				for (String token : tokens) {
+					Postings ids = postings.get(token);
+					if (ids != null && ids.remove(id) && ids.size == 0)
+						postings.remove(token);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		// Intersects the todos of each word, the rarest word is usually the first to run empty.
+		int[] search(Collection<String> words) {
+			lock.readLock().lock();
+			try {
+				int[] found = null;
+				for (String word : words) {
+					int[] ids = prefix(word);
+					found = found == null ? ids : intersect(found, ids);
+					if (found.length == 0)
+						break;
+				}
+				return found;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		// The union of the todos of every token starting with a prefix.
+		private int[] prefix(String prefix) {
+			Map<String, Postings> range = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+			if (range.isEmpty())
+				return NO_IDS;
+			if (range.size() == 1) {
+				Postings ids = range.values().iterator().next();
+				return Arrays.copyOf(ids.ids, ids.size);
+			}
+			List<Postings> lists = new ArrayList<Postings>(range.values());
+			int total = 0;
+			for (Postings ids : lists)
+				total += ids.size;
+			int[] union = new int[total];
+			int size = 0;
+			for (Postings ids : lists) {
+				System.arraycopy(ids.ids, 0, union, size, ids.size);
+				size += ids.size;
+			}
+			Arrays.sort(union);
+			int distinct = 0;
+			for (int i = 0; i < size; i++) {
+				if (distinct == 0 || union[distinct - 1] != union[i])
+					union[distinct++] = union[i];
+			}
+			return distinct == union.length ? union : Arrays.copyOf(union, distinct);
+		}
+
+		private static int[] intersect(int[] first, int[] second) {
+			int[] both = new int[Math.min(first.length, second.length)];
+			int size = 0;
+			for (int i = 0, j = 0; i < first.length && j < second.length;) {
+				if (first[i] < second[j])
+					i++;
+				else if (first[i] > second[j])
+					j++;
+				else {
+					both[size++] = first[i];
+					i++;
+					j++;
+				}
+			}
+			return Arrays.copyOf(both, size);
+		}
+	}
+
+	/*
+	 * The ids of the todos having a token, a sorted int array. New todos get the highest id
+	 * so adding one is usually an append.
+	 */
+	private static class Postings {
+
+		int[] ids = new int[2];
+		int size;
+
+		void add(int id) {
+			int position = size > 0 && ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+			if (position >= 0)
+				return;
+			position = -position - 1;
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			System.arraycopy(ids, position, ids, position + 1, size - position);
+			ids[position] = id;
+			size++;
+		}
+
+		boolean remove(int id) {
+			int position = Arrays.binarySearch(ids, 0, size, id);
+			if (position < 0)
+				return false;
+			System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+			size--;
+			if (size > 8 && size < ids.length / 4)
+				ids = Arrays.copyOf(ids, ids.length / 2);
+			return true;
+		}
+	}
+}
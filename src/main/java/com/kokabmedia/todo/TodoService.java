@@ -1,10 +1,21 @@
 package com.kokabmedia.todo;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 /*
@@ -22,63 +33,353 @@ import org.springframework.stereotype.Service;
  * 
  * The @Service annotation is a specialisation of @Component annotation for more specific 
  * use cases.
+ *
+ * The todos themselves are kept by a TodoRepository, which one is used is declared in
+ * the todo-servlet.xml file. What is read for a user is cached by a TodoListCache until
+ * one of the todos of that user changes.
+ *
+ * Every change of a todo also bumps the TodoVersion of its user, the TodoController class
+ * uses it to answer repeated requests for an unchanged list without rendering it again.
+ *
+ * The descriptions of the todos are kept in a TodoSearchIndex for searching, it is built
+ * from the repository when the service is created and changed with every todo after that.
+ *
+ * Every change is also sent to the TodoEvents bean, which passes it on to the pages the
+ * user has open.
  */
 @Service 
 public class TodoService {
 
+	// Storage unit of the todos.
+	private final TodoRepository repository;
+	
+	// Lists and pages of todos read for a user.
+	private final TodoListCache cache;
+	
+	// Sends the changes to the open pages of the users.
+	private final TodoEvents events;
+	
+	// Version of the todos of every user that changed a todo since the application started.
+	private final ConcurrentMap<String, TodoVersion> versions = new ConcurrentHashMap<String, TodoVersion>();
 	
-	// Temporary storage unit.
-	private static List<Todo> todos = new ArrayList<Todo>();
+	// Version of the users without changes.
+	private final TodoVersion initialVersion;
 	
-	// Count of amount of todos that will increment with the addTodo() method.
-	private static int todoCount = 3;
+	// Words of the descriptions of the todos.
+	private final TodoSearchIndex searchIndex = new TodoSearchIndex();
+	
+	// Hands out the ids of the todos that are added with the addTodo() method.
+	private final TodoIdGenerator idGenerator = new TodoIdGenerator(0);
 
-	// Static block to insert dummy methods that cannot be initialized int the constructor. 
-	static {
-		todos.add(new Todo(1, "Ghiam", "Learn Spring MVC", new Date(), false));
-		todos.add(new Todo(2, "Ghiam", "Learn Struts", new Date(), false));
-		todos.add(new Todo(3, "Ghiam", "Learn Hibernate", new Date(),	false));
+	/*
+	 * The @Autowired annotation on the constructor makes the Spring framework pass the
+	 * TodoRepository, TodoListCache and TodoEvents beans when it creates the TodoService bean.
+	 *
+	 * New ids always follow the highest stored id, and an empty storage starts with
+	 * the dummy todos.
+	 */
+	@Autowired
+	public TodoService(TodoRepository repository, TodoListCache cache, TodoEvents events) {
+		this.repository = repository;
+		this.cache = cache;
+		this.events = events;
+		long started = System.currentTimeMillis();
+		initialVersion = new TodoVersion(started, 0, started);
+		for (Todo todo : repository.findAll())
+			searchIndex.sync(todo.getId(), () -> todo);
+		idGenerator.advancePast(repository.maxId());
+		if (idGenerator.lastId() == 0) {
+			addTodo("Ghiam", "Learn Spring MVC", new Date(), false);
+			addTodo("Ghiam", "Learn Struts", new Date(), false);
+			addTodo("Ghiam", "Learn Hibernate", new Date(), false);
+		}
 	}
 
-	// Adds a todo to the list of todos
-	public void addTodo(String name, String desc, Date targetDate, boolean isDone) {
-		todos.add(new Todo(++todoCount, name, desc, targetDate, isDone));
+	// Adds a todo to the list of todos and returns it with its new id
+	public Todo addTodo(String name, String desc, Date targetDate, boolean isDone) {
+		Todo todo = new Todo(idGenerator.nextId(), name, desc, targetDate, isDone, 1);
+		repository.save(todo);
+		reindex(todo.getId());
+		events.put(todo, changed(name));
+		return todo;
 	}
 	
-	// Checks if the user name matches and retrieves that specific todo
+	// Retrieves the todos of a specific user
 	public List<Todo> retrieveTodos(String user) {
-		List<Todo> filteredTodos = new ArrayList<Todo>();
-		for (Todo todo : todos) {
-			if (todo.getUser().equals(user))
-				filteredTodos.add(todo);
-		}
-		return filteredTodos;
+		return cache.get(user, "all", () -> Collections.unmodifiableList(repository.findByUser(user)));
+	}
+	
+	// Retrieves the todos of a specific user that match a filter
+	public List<Todo> retrieveTodos(String user, TodoFilter filter) {
+		return cache.get(user, "filter " + filter,
+				() -> Collections.unmodifiableList(repository.findByFilter(user, filter)));
+	}
+	
+	/*
+	 * Retrieves one page of the todos of a specific user sorted by target date, right
+	 * after the after cursor or right before the before cursor, both may be null.
+	 */
+	public TodoPage retrieveTodoPage(String user, TodoCursor after, TodoCursor before, int size) {
+		return retrieveTodoPage(user, TodoFilter.ALL, TodoSort.DATE, after, before, size);
 	}
 	
-	// Loops around the list, identifies the a todo with its id and deletes it from the list
+	// Retrieves one page of the todos of a specific user that match a filter in a specific sort
+	public TodoPage retrieveTodoPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after,
+			TodoCursor before, int size) {
+		String key = "page " + filter + " " + sort + " " + after + " " + before + " " + size;
+		return cache.get(user, key, () -> repository.findPage(user, filter, sort, after, before, size));
+	}
+	
+	// Deletes a specific todo
 	public void deleteTodo(int id) {
-		Iterator<Todo> iterator = todos.iterator();
-		while (iterator.hasNext()) {
-			Todo todo = iterator.next();
-			if (todo.getId() == id) {
-				iterator.remove();
-			}
+		while (true) {
+			Todo todo = repository.findById(id);
+			if (todo == null || remove(todo))
+				return;
+		}
+	}
+	
+	// Deletes a specific todo of a specific user, returns false when the user has no todo with that id
+	public boolean deleteTodo(int id, String user) {
+		while (true) {
+			Todo todo = repository.findById(id);
+			if (todo == null || !todo.getUser().equals(user))
+				return false;
+			if (remove(todo))
+				return true;
+		}
+	}
+	
+	/*
+	 * Searches the todos of a specific user whose description has words starting with every
+	 * word of the query, for example "spr mv" finds "Learn Spring MVC". Returns at most limit
+	 * todos in the order of their ids.
+	 */
+	public List<Todo> searchTodos(String user, String query, int limit) {
+		int[] ids = searchIndex.search(user, query);
+		List<Todo> todos = new ArrayList<Todo>(Math.min(ids.length, limit));
+		for (int i = 0; i < ids.length && todos.size() < limit; i++) {
+			// A todo deleted right after the search is left out
+			Todo todo = repository.findById(ids[i]);
+			if (todo != null)
+				todos.add(todo);
 		}
+		return todos;
+	}
+	
+	// Retrieves the version of the todos of a specific user
+	public TodoVersion retrieveVersion(String user) {
+		TodoVersion version = versions.get(user);
+		return version == null ? initialVersion : version;
 	}
 	
 	// Retrieve a specific Todo
 	public Todo retrieveTodo(int id) {
-		for (Todo todo : todos) {
-			if (todo.getId() == id)
+		return repository.findById(id);
+	}
+
+	/*
+	 * Update a specific Todo in place if it still has the version the caller read, the todo
+	 * keeps its place in the list of its user and gets the next version. Returns false when
+	 * the todo was changed or deleted since, then nothing is stored.
+	 */
+	public boolean updateTodo(Todo todo, int expectedVersion) {
+		Todo previous = repository.findById(todo.getId());
+		if (previous == null || previous.getVersion() != expectedVersion)
+			return false;
+		return replace(previous, todo);
+	}
+
+	/*
+	 * Update a specific Todo of a specific user in place like the method above, the todo
+	 * stays with that user. Returns false, and stores nothing, when the todo was changed or
+	 * deleted since or belongs to another user. A todo that moves to another user gets a
+	 * new version, so the compare and set also fails when the owner changed after the check.
+	 */
+	public boolean updateTodo(Todo todo, int expectedVersion, String user) {
+		Todo previous = repository.findById(todo.getId());
+		if (previous == null || !previous.getUser().equals(user) || previous.getVersion() != expectedVersion)
+			return false;
+		todo.setUser(user);
+		return replace(previous, todo);
+	}
+
+	/*
+	 * Changes some fields of a todo of a specific user in place, for example only its done
+	 * flag, without the caller sending the whole todo. The change is applied to the stored
+	 * todo and stored with a compare and set, when another change came first it is applied
+	 * again to the new stored todo. Returns the changed todo, or null when the user has no
+	 * todo with that id.
+	 */
+	public Todo changeTodo(int id, String user, Consumer<Todo> change) {
+		while (true) {
+			Todo previous = repository.findById(id);
+			if (previous == null || !previous.getUser().equals(user))
+				return null;
+			Todo todo = new Todo(id, user, previous.getDesc(), previous.getTargetDate(), previous.isDone(),
+					previous.getVersion());
+			change.accept(todo);
+			if (replace(previous, todo))
 				return todo;
 		}
-		return null;
 	}
 
-	// Update a specific Todo
+	// Update a specific Todo whatever its version is, a deleted todo is stored again.
 	public void updateTodo(Todo todo) {
-		todos.remove(todo);
-		todos.add(todo);
+		while (true) {
+			Todo previous = repository.findById(todo.getId());
+			if (previous == null) {
+				todo.setVersion(1);
+				repository.save(todo);
+				reindex(todo.getId());
+				events.put(todo, changed(todo.getUser()));
+				return;
+			}
+			if (updateTodo(todo, previous.getVersion()))
+				return;
+		}
+	}
+	
+	/*
+	 * Applies a batch of operations of a specific user in their order and returns the
+	 * result of every operation. An operation sees the changes of the operations before it,
+	 * so a todo created in a batch can be updated or deleted later in the same batch.
+	 * 
+	 * Only the final state of every touched todo is stored. The created todos are stored with
+	 * a single saveAll() call, a stored todo is updated or deleted with a compare and set on
+	 * the version it had when the batch read it. When another request changed it in the
+	 * meantime nothing is stored for it and its operations fail with 409.
+	 *
+	 * So a batch is atomic per todo and not as a whole: the changes of the other todos are
+	 * stored even when some todos failed, and a request reading while the batch is stored
+	 * can see some of its changes but not yet the others.
+	 */
+	public List<TodoOperationResult> applyBatch(String user, List<TodoOperation> operations) {
+		// Final state of every touched todo, null for a deleted todo
+		Map<Integer, Todo> changes = new LinkedHashMap<Integer, Todo>();
+		// Stored state of every touched todo before the batch
+		Map<Integer, Todo> originals = new HashMap<Integer, Todo>();
+		List<TodoOperationResult> results = new ArrayList<TodoOperationResult>(operations.size());
+		for (TodoOperation operation : operations)
+			results.add(apply(user, operation, changes, originals));
+
+		// Todos created in the batch cannot have been changed by anyone else
+		List<Todo> created = new ArrayList<Todo>();
+		Set<Integer> conflicts = new HashSet<Integer>();
+		for (Iterator<Map.Entry<Integer, Todo>> i = changes.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Integer, Todo> change = i.next();
+			Todo original = originals.get(change.getKey());
+			Todo todo = change.getValue();
+			if (original == null) {
+				if (todo != null)
+					created.add(todo);
+				else
+					i.remove();
+			} else if (todo == null ? !repository.delete(original.getId(), original.getVersion())
+					: !repository.update(todo, original.getVersion())) {
+				conflicts.add(change.getKey());
+				i.remove();
+			}
+		}
+		repository.saveAll(created);
+		for (Integer id : changes.keySet())
+			reindex(id);
+		if (!changes.isEmpty()) {
+			// A large batch fills the buffers of the open pages, which then read the list again
+			TodoVersion version = changed(user);
+			for (Map.Entry<Integer, Todo> change : changes.entrySet()) {
+				if (change.getValue() != null)
+					events.put(change.getValue(), version);
+				else
+					events.delete(originals.get(change.getKey()), version);
+			}
+		}
+		for (int i = 0; i < results.size(); i++) {
+			Integer id = operations.get(i).getId();
+			if (results.get(i).getError() == null && id != null && conflicts.contains(id))
+				results.set(i, TodoOperationResult.failure(HttpStatus.CONFLICT.value(),
+						"todo " + id + " was changed by another request"));
+		}
+		return results;
+	}
+	
+	private TodoOperationResult apply(String user, TodoOperation operation, Map<Integer, Todo> changes,
+			Map<Integer, Todo> originals) {
+		String op = operation.getOp();
+		boolean create = TodoOperation.CREATE.equals(op);
+		if (!create && !TodoOperation.UPDATE.equals(op) && !TodoOperation.DELETE.equals(op))
+			return TodoOperationResult.failure(HttpStatus.BAD_REQUEST.value(), "op must be create, update or delete");
+		if (!TodoOperation.DELETE.equals(op) && !Todo.isValidDesc(operation.getDesc()))
+			return TodoOperationResult.failure(HttpStatus.BAD_REQUEST.value(),
+					"desc is required and has at most " + Todo.MAX_DESC_LENGTH + " characters");
+
+		if (create) {
+			Date targetDate = operation.getTargetDate() == null ? new Date() : operation.getTargetDate();
+			Todo todo = new Todo(idGenerator.nextId(), user, operation.getDesc(), targetDate, operation.isDone(), 1);
+			changes.put(todo.getId(), todo);
+			return TodoOperationResult.success(HttpStatus.CREATED.value(), todo);
+		}
+
+		if (operation.getId() == null)
+			return TodoOperationResult.failure(HttpStatus.BAD_REQUEST.value(), "id is required");
+		int id = operation.getId();
+		Todo current;
+		if (changes.containsKey(id)) {
+			current = changes.get(id);
+		} else {
+			current = repository.findById(id);
+			if (current != null)
+				originals.put(id, current);
+		}
+		if (current == null || !current.getUser().equals(user))
+			return TodoOperationResult.failure(HttpStatus.NOT_FOUND.value(), "todo " + id + " not found");
+
+		if (TodoOperation.DELETE.equals(op)) {
+			changes.put(id, null);
+			return TodoOperationResult.success(HttpStatus.NO_CONTENT.value(), null);
+		}
+		// However often the batch changes a todo, it is stored once with the next version
+		int version = changes.containsKey(id) ? current.getVersion() : current.getVersion() + 1;
+		Date targetDate = operation.getTargetDate() == null ? current.getTargetDate() : operation.getTargetDate();
+		Todo todo = new Todo(id, user, operation.getDesc(), targetDate, operation.isDone(), version);
+		changes.put(id, todo);
+		return TodoOperationResult.success(HttpStatus.OK.value(), todo);
 	}
 	
+	// Deletes a todo if the stored todo is still the one read from the repository.
+	private boolean remove(Todo todo) {
+		if (!repository.delete(todo.getId(), todo.getVersion()))
+			return false;
+		reindex(todo.getId());
+		events.delete(todo, changed(todo.getUser()));
+		return true;
+	}
+
+	// Stores a todo if the stored todo is still the previous one read from the repository.
+	private boolean replace(Todo previous, Todo todo) {
+		if (!repository.update(todo, previous.getVersion()))
+			return false;
+		reindex(todo.getId());
+		TodoVersion version = changed(todo.getUser());
+		if (!previous.getUser().equals(todo.getUser()))
+			events.delete(previous, changed(previous.getUser()));
+		events.put(todo, version);
+		return true;
+	}
+
+	// Called after a todo was stored or deleted, the index reads it as it is stored now.
+	private void reindex(int id) {
+		searchIndex.sync(id, () -> repository.findById(id));
+	}
+
+	/*
+	 * Called after a todo of a specific user was stored. The cached lists are dropped before
+	 * the version is bumped, so whoever reads the new version also reads the new todos.
+	 * Returns the new version, which is sent with the events of the change.
+	 */
+	private TodoVersion changed(String user) {
+		cache.invalidate(user);
+		long now = System.currentTimeMillis();
+		return versions.compute(user, (name, version) -> (version == null ? initialVersion : version).next(now));
+	}
 }
@@ -0,0 +1,23 @@
+package com.kokabmedia.todo;
+
+/*
+ * The orders in which a page of todos can be sorted. Both orders end with the id, so two
+ * todos never sort the same and a cursor is a precise position.
+ */
+public enum TodoSort {
+
+	// By target date, todos without a target date first.
+	DATE,
+
+	// By description, ignoring the case of ASCII letters. Todos without a description first.
+	DESC;
+
+	// The sort with a specific name in any case, DATE for a missing or unknown name.
+	public static TodoSort parse(String name) {
+		for (TodoSort sort : values()) {
+			if (sort.name().equalsIgnoreCase(name))
+				return sort;
+		}
+		return DATE;
+	}
+}
@@ -0,0 +1,57 @@
+package com.kokabmedia.todo;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * This class gives every user name a small int id, so a store keeps the name once and
+ * every todo of the user only holds the id.
+ *
+ * Ids are handed out from 0 upwards and never taken back. Looking up the name of an id
+ * reads an array without locking, only adding a new user takes the lock.
+ */
+public class TodoUsers {
+
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// Written while holding the lock, the names are read without it.
+	private volatile String[] names = new String[16];
+	private int count;
+
+	// The id of a user, a new user gets the next free id.
+	public int idOf(String user) {
+		Integer id = ids.get(user);
+		if (id != null)
+			return id;
+		lock.lock();
+		try {
+			id = ids.get(user);
+			if (id != null)
+				return id;
+			String[] grown = names;
+			if (count == grown.length)
+				grown = Arrays.copyOf(grown, count * 2);
+			grown[count] = user;
+			// Publish the name before the id, a reader that sees the id also sees the name.
+			names = grown;
+			ids.put(user, count);
+			return count++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The id of a user, or -1 for a user without an id.
+	public int find(String user) {
+		Integer id = ids.get(user);
+		return id == null ? -1 : id;
+	}
+
+	public String nameOf(int id) {
+		return names[id];
+	}
+}
@@ -0,0 +1,55 @@
+package com.kokabmedia.todo;
+
+/*
+ * This class is the version of the todos of a user, a number that the TodoService class
+ * increments with every change of a todo of the user and the time of that change.
+ *
+ * Versions are only kept in memory and start at 0 again when the application starts, the
+ * start time of the TodoService class tells versions of different runs apart.
+ */
+public class TodoVersion {
+
+	private final long epoch;
+	private final long version;
+	private final long lastModified;
+
+	public TodoVersion(long epoch, long version, long lastModified) {
+		this.epoch = epoch;
+		this.version = version;
+		this.lastModified = lastModified;
+	}
+
+	// The version after a change made at a specific time.
+	public TodoVersion next(long changedAt) {
+		return new TodoVersion(epoch, version + 1, Math.max(lastModified, changedAt));
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	// Time of the last change in milliseconds, or the start time when nothing changed yet.
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/*
+	 * A strong HTTP entity tag for the todos of a specific user at this version. The user
+	 * is part of the tag so that two users with the same version on the same browser never
+	 * share a cached page.
+	 */
+	public String toETag(String user) {
+		return "\"" + Long.toHexString(epoch) + "-" + Integer.toHexString(user.hashCode()) + "-" + version + "\"";
+	}
+
+	/*
+	 * The entity tag of a page that also embeds a token of the session, like the CSRF token
+	 * in the forms and the header of the page. A page kept by the browser from an earlier
+	 * login then no longer matches and is rendered again with the token of the new session.
+	 * Only a hash of the token is part of the tag.
+	 */
+	public String toETag(String user, String sessionToken) {
+		return "\"" + Long.toHexString(epoch) + "-" + Integer.toHexString(user.hashCode()) + "-"
+				+ Integer.toHexString(sessionToken.hashCode()) + "-" + version + "\"";
+	}
+}
@@ -0,0 +1,574 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+
+/*
+ * This class puts an in-memory index in front of a durable TodoRepository.
+ *
+ * Every read is answered by the index. Every change is applied to the index first and
+ * then handed to a background writer, which sends the changes to the durable repository
+ * in batches. While a change waits for the writer, later changes to the same todo replace
+ * it, so a todo that is edited many times is only written once.
+ *
+ * A change is applied to the index and handed on while the request holds the lock of the
+ * todo, one of a fixed number of locks that the todo ids are spread over. So requests that
+ * change different todos do not wait for each other, and the changes of one todo reach
+ * the durable repository in the order they were applied to the index. No lock is held
+ * while the durable repository is written.
+ *
+ * How long a request waits for its change to reach the durable repository depends on
+ * the durability mode:
+ * SYNC          the change is written by the request thread itself, one write per
+ *               change. When another request is still writing the same todo, that request
+ *               writes the change after its own and this request waits for it.
+ * GROUP_COMMIT  the request waits until the batch holding its change has been written,
+ *               a new batch is written as soon as the previous one is done.
+ * ASYNC         the request does not wait, a batch is written when it holds batchSize
+ *               changes or when the oldest change has waited flushIntervalMillis.
+ *
+ * A batch the database refuses, because one of its changes breaks a constraint of the
+ * table, is written change by change and the refused changes are given up and logged.
+ * Any other failure, like a lost connection, keeps the batch to be retried.
+ *
+ * On start all todos of the durable repository are loaded into the index.
+ */
+public class WriteBehindTodoRepository implements TodoRepository {
+
+	public enum Durability {
+		SYNC, GROUP_COMMIT, ASYNC
+	}
+
+	private static final Log logger = LogFactory.getLog(WriteBehindTodoRepository.class);
+
+	// Marks a todo that was deleted while it waited for the writer.
+	private static final Todo DELETED = new Todo();
+
+	private final TodoRepository index;
+	private final TodoRepository durable;
+
+	private Durability durability = Durability.GROUP_COMMIT;
+	private int batchSize = 500;
+	private long flushIntervalMillis = 50;
+
+	// The locks the todo ids are spread over, a power of two.
+	private static final int TODO_LOCKS = 64;
+
+	private final ReentrantLock[] todoLocks = new ReentrantLock[TODO_LOCKS];
+
+	// Guards the changes that are handed on, it is only held for a moment.
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	// Changes waiting for the writer by todo id, guarded by lock.
+	private Map<Integer, Todo> pending = new LinkedHashMap<Integer, Todo>();
+
+	// Completed once the changes in pending are durable, guarded by lock.
+	private CompletableFuture<Void> pendingWritten = new CompletableFuture<Void>();
+
+	// When the oldest change in pending was queued, guarded by lock.
+	private long oldestPendingNanos;
+
+	// In SYNC mode the todos a request is writing right now, guarded by lock.
+	private final Map<Integer, SyncWrite> syncWrites = new HashMap<Integer, SyncWrite>();
+
+	// The highest id the durable repository stored before the start.
+	private int durableMaxId;
+
+	private volatile boolean running;
+	private Thread writer;
+
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder flushedChanges = new LongAdder();
+	private final LongAdder flushFailures = new LongAdder();
+	private final LongAdder deadLetters = new LongAdder();
+	private final LongAdder flushNanos = new LongAdder();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+
+	public WriteBehindTodoRepository(TodoRepository index, TodoRepository durable) {
+		this.index = index;
+		this.durable = durable;
+		for (int i = 0; i < todoLocks.length; i++)
+			todoLocks[i] = new ReentrantLock();
+	}
+
+	public void setDurability(Durability durability) {
+		this.durability = durability;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	// Loads the durable todos into the index and starts the background writer.
+	public void start() {
+		index.saveAll(durable.findAll());
+		durableMaxId = durable.maxId();
+		running = true;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "todo-write-behind");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	// Stops the background writer after it wrote every pending change.
+	public void close() throws InterruptedException {
+		running = false;
+		lock.lock();
+		try {
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		if (writer != null)
+			writer.join();
+	}
+
+	@Override
+	public List<Todo> findAll() {
+		return index.findAll();
+	}
+
+	@Override
+	public List<Todo> findByUser(String user) {
+		return index.findByUser(user);
+	}
+
+	@Override
+	public TodoPage findPage(String user, TodoFilter filter, TodoSort sort, TodoCursor after, TodoCursor before,
+			int size) {
+		return index.findPage(user, filter, sort, after, before, size);
+	}
+
+	@Override
+	public List<Todo> findByFilter(String user, TodoFilter filter) {
+		return index.findByFilter(user, filter);
+	}
+
+	@Override
+	public Todo findById(int id) {
+		return index.findById(id);
+	}
+
+	@Override
+	public void save(Todo todo) {
+		change(() -> {
+			index.save(todo);
+			return true;
+		}, Collections.singletonMap(todo.getId(), todo));
+	}
+
+	/*
+	 * The version is compared by the index, the durable repository is only handed the
+	 * todos that won it, with their new version.
+	 */
+	@Override
+	public boolean update(Todo todo, int expectedVersion) {
+		return change(() -> index.update(todo, expectedVersion), Collections.singletonMap(todo.getId(), todo));
+	}
+
+	@Override
+	public void saveAll(Collection<Todo> todos) {
+		Map<Integer, Todo> changes = new LinkedHashMap<Integer, Todo>();
+		for (Todo todo : todos)
+			changes.put(todo.getId(), todo);
+		change(() -> {
+			index.saveAll(todos);
+			return true;
+		}, changes);
+	}
+
+	@Override
+	public void delete(int id) {
+		change(() -> {
+			index.delete(id);
+			return true;
+		}, Collections.singletonMap(id, DELETED));
+	}
+
+	@Override
+	public boolean delete(int id, int expectedVersion) {
+		return change(() -> index.delete(id, expectedVersion), Collections.singletonMap(id, DELETED));
+	}
+
+	@Override
+	public void deleteAll(Collection<Integer> ids) {
+		Map<Integer, Todo> changes = new LinkedHashMap<Integer, Todo>();
+		for (int id : ids)
+			changes.put(id, DELETED);
+		change(() -> {
+			index.deleteAll(ids);
+			return true;
+		}, changes);
+	}
+
+	@Override
+	public int maxId() {
+		return Math.max(index.maxId(), durableMaxId);
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	// Number of changes waiting for the writer.
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getFlushCount() {
+		return flushes.sum();
+	}
+
+	public long getFlushedChanges() {
+		return flushedChanges.sum();
+	}
+
+	public long getFlushFailures() {
+		return flushFailures.sum();
+	}
+
+	// Changes the database refused and that were given up.
+	public long getDeadLetters() {
+		return deadLetters.sum();
+	}
+
+	public long getFlushTimeTotalNanos() {
+		return flushNanos.sum();
+	}
+
+	public long getFlushTimeMaxNanos() {
+		return maxFlushNanos.get();
+	}
+
+	/*
+	 * Applies a change to the index and hands it on while holding the locks of the todos
+	 * it changes, so the durable repository gets the changes of a todo in the same order
+	 * as the index even when two requests change it at once. Returns false, and hands
+	 * nothing on, when the index refused the change.
+	 */
+	private boolean change(IndexChange indexChange, Map<Integer, Todo> changes) {
+		List<ReentrantLock> locks = todoLocks(changes.keySet());
+		Runnable written;
+		for (ReentrantLock todoLock : locks)
+			todoLock.lock();
+		try {
+			if (!indexChange.apply())
+				return false;
+			written = enqueue(changes);
+		} finally {
+			for (ReentrantLock todoLock : locks)
+				todoLock.unlock();
+		}
+		written.run();
+		return true;
+	}
+
+	private interface IndexChange {
+		boolean apply();
+	}
+
+	// The locks of the todos, always taken in the same order so two requests cannot deadlock.
+	private List<ReentrantLock> todoLocks(Collection<Integer> ids) {
+		TreeSet<Integer> slots = new TreeSet<Integer>();
+		for (int id : ids)
+			slots.add(id & (TODO_LOCKS - 1));
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>(slots.size());
+		for (int slot : slots)
+			locks.add(todoLocks[slot]);
+		return locks;
+	}
+
+	/*
+	 * Queues changes, replacing changes to the same todos that were not written yet. In
+	 * SYNC mode the changes are claimed for the request to write instead. Returns what the
+	 * request does once it let go of the locks of the todos: waiting for the writer in
+	 * GROUP_COMMIT mode, writing the changes in SYNC mode, nothing in ASYNC mode.
+	 */
+	private Runnable enqueue(Map<Integer, Todo> changes) {
+		if (changes.isEmpty())
+			return () -> {};
+		lock.lock();
+		try {
+			if (durability == Durability.SYNC)
+				return claimSyncWrite(changes);
+			if (pending.isEmpty())
+				oldestPendingNanos = System.nanoTime();
+			pending.putAll(changes);
+			if (durability == Durability.GROUP_COMMIT || pending.size() >= batchSize)
+				changed.signal();
+			if (durability == Durability.ASYNC)
+				return () -> {};
+			CompletableFuture<Void> written = pendingWritten;
+			return () -> await(Collections.singletonList(written));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Waits until the changes are durable.
+	private void await(List<CompletableFuture<Void>> written) {
+		try {
+			for (CompletableFuture<Void> change : written)
+				change.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the todo to be written", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Writing the todo failed", e.getCause());
+		}
+	}
+
+	/*
+	 * A todo that a request is writing in SYNC mode. A change to it that comes in
+	 * meanwhile waits here, and the writing request writes it next, so the writes of one
+	 * todo never overtake each other. A newer change replaces a waiting one.
+	 */
+	private static class SyncWrite {
+		Todo next;
+		CompletableFuture<Void> nextWritten;
+	}
+
+	/*
+	 * Claims the todos no other request is writing for this request, and leaves the
+	 * changes of the others to the requests writing them. Guarded by lock.
+	 */
+	private Runnable claimSyncWrite(Map<Integer, Todo> changes) {
+		Map<Integer, Todo> claimed = new LinkedHashMap<Integer, Todo>();
+		List<CompletableFuture<Void>> handedOver = new ArrayList<CompletableFuture<Void>>();
+		for (Map.Entry<Integer, Todo> change : changes.entrySet()) {
+			SyncWrite writing = syncWrites.get(change.getKey());
+			if (writing == null) {
+				syncWrites.put(change.getKey(), new SyncWrite());
+				claimed.put(change.getKey(), change.getValue());
+				continue;
+			}
+			writing.next = change.getValue();
+			if (writing.nextWritten == null)
+				writing.nextWritten = new CompletableFuture<Void>();
+			handedOver.add(writing.nextWritten);
+		}
+		return () -> writeSync(claimed, handedOver);
+	}
+
+	/*
+	 * Writes the claimed changes, then the changes that came in for the same todos while
+	 * they were written, until none is left. Then waits for the changes handed over to
+	 * other requests.
+	 */
+	private void writeSync(Map<Integer, Todo> claimed, List<CompletableFuture<Void>> handedOver) {
+		RuntimeException failure = null;
+		Map<Integer, Todo> batch = claimed;
+		List<CompletableFuture<Void>> written = Collections.emptyList();
+		while (!batch.isEmpty()) {
+			long start = System.nanoTime();
+			try {
+				writeDurably(batch);
+				recordFlush(batch.size(), System.nanoTime() - start);
+				for (CompletableFuture<Void> change : written)
+					change.complete(null);
+			} catch (RuntimeException e) {
+				flushFailures.increment();
+				if (batch == claimed)
+					failure = e;
+				for (CompletableFuture<Void> change : written)
+					change.completeExceptionally(e);
+			}
+
+			Map<Integer, Todo> next = new LinkedHashMap<Integer, Todo>();
+			written = new ArrayList<CompletableFuture<Void>>();
+			lock.lock();
+			try {
+				for (int id : batch.keySet()) {
+					SyncWrite writing = syncWrites.get(id);
+					if (writing.next == null) {
+						syncWrites.remove(id);
+						continue;
+					}
+					next.put(id, writing.next);
+					written.add(writing.nextWritten);
+					writing.next = null;
+					writing.nextWritten = null;
+				}
+			} finally {
+				lock.unlock();
+			}
+			batch = next;
+		}
+		if (failure != null)
+			throw failure;
+		await(handedOver);
+	}
+
+	private void writeLoop() {
+		while (true) {
+			Map<Integer, Todo> batch;
+			CompletableFuture<Void> written;
+			lock.lock();
+			try {
+				while (running && !batchReady())
+					changed.awaitNanos(waitNanos());
+				if (pending.isEmpty())
+					return;
+				batch = pending;
+				written = pendingWritten;
+				pending = new LinkedHashMap<Integer, Todo>();
+				pendingWritten = new CompletableFuture<Void>();
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			if (!write(batch, written) && running) {
+				// Give the durable repository some time before the batch is tried again
+				try {
+					Thread.sleep(flushIntervalMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	// Guarded by lock.
+	private boolean batchReady() {
+		if (pending.isEmpty())
+			return false;
+		return durability == Durability.GROUP_COMMIT || pending.size() >= batchSize
+				|| System.nanoTime() - oldestPendingNanos >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+	}
+
+	// Guarded by lock.
+	private long waitNanos() {
+		long interval = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		if (pending.isEmpty())
+			return interval;
+		return Math.max(1, interval - (System.nanoTime() - oldestPendingNanos));
+	}
+
+	// Returns false when the batch could not be written.
+	private boolean write(Map<Integer, Todo> batch, CompletableFuture<Void> written) {
+		long start = System.nanoTime();
+		try {
+			writeDurably(batch);
+			written.complete(null);
+		} catch (RuntimeException e) {
+			flushFailures.increment();
+			if (running && e instanceof DataIntegrityViolationException && batch.size() > 1) {
+				logger.error("Writing " + batch.size() + " todo changes failed, they are written one by one", e);
+				requeue(writeOneByOne(batch));
+			} else if (running && e instanceof DataIntegrityViolationException) {
+				deadLetter(batch, e);
+			} else if (running) {
+				logger.error("Writing " + batch.size() + " todo changes failed, they will be retried", e);
+				requeue(batch);
+			} else {
+				logger.error("Writing " + batch.size() + " todo changes failed while stopping, they are lost", e);
+			}
+			written.completeExceptionally(e);
+			return false;
+		}
+
+		recordFlush(batch.size(), System.nanoTime() - start);
+		return true;
+	}
+
+	private void recordFlush(int changes, long elapsed) {
+		flushes.increment();
+		flushedChanges.add(changes);
+		flushNanos.add(elapsed);
+		long max = maxFlushNanos.get();
+		while (elapsed > max && !maxFlushNanos.compareAndSet(max, elapsed))
+			max = maxFlushNanos.get();
+	}
+
+	// Sends changes, at most one per todo, to the durable repository.
+	private void writeDurably(Map<Integer, Todo> changes) {
+		List<Todo> saved = new ArrayList<Todo>();
+		List<Integer> deleted = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Todo> change : changes.entrySet()) {
+			if (change.getValue() == DELETED)
+				deleted.add(change.getKey());
+			else
+				saved.add(change.getValue());
+		}
+		durable.saveAll(saved);
+		durable.deleteAll(deleted);
+	}
+
+	/*
+	 * Writes the changes of a batch that the database refused one at a time, so a single
+	 * change the database will never take, for example a description longer than its
+	 * column, does not keep every other change from being written. The refused changes are
+	 * given up, the changes that failed for another reason are returned to be retried.
+	 */
+	private Map<Integer, Todo> writeOneByOne(Map<Integer, Todo> batch) {
+		Map<Integer, Todo> failed = new LinkedHashMap<Integer, Todo>();
+		for (Map.Entry<Integer, Todo> change : batch.entrySet()) {
+			Map<Integer, Todo> single = Collections.singletonMap(change.getKey(), change.getValue());
+			try {
+				writeDurably(single);
+				flushedChanges.increment();
+			} catch (DataIntegrityViolationException e) {
+				deadLetter(single, e);
+			} catch (RuntimeException e) {
+				failed.put(change.getKey(), change.getValue());
+			}
+		}
+		return failed;
+	}
+
+	// Gives up changes the database refused, they stay in the index until the next start.
+	private void deadLetter(Map<Integer, Todo> changes, RuntimeException e) {
+		for (Map.Entry<Integer, Todo> change : changes.entrySet()) {
+			deadLetters.increment();
+			logger.error("The database refused the " + (change.getValue() == DELETED ? "deletion" : "change")
+					+ " of todo " + change.getKey() + ", it is not written", e);
+		}
+	}
+
+	// Puts back the changes of a failed batch unless the same todo changed again since.
+	private void requeue(Map<Integer, Todo> batch) {
+		lock.lock();
+		try {
+			Map<Integer, Todo> merged = new LinkedHashMap<Integer, Todo>(batch);
+			merged.putAll(pending);
+			if (pending.isEmpty())
+				oldestPendingNanos = System.nanoTime();
+			pending = merged;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
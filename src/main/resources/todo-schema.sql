@@ -0,0 +1,21 @@
+CREATE TABLE IF NOT EXISTS todo (
+    id INT NOT NULL PRIMARY KEY,
+    username VARCHAR(100) NOT NULL,
+    description VARCHAR(1000),
+    target_date TIMESTAMP,
+    done BOOLEAN NOT NULL,
+    version INT DEFAULT 0 NOT NULL
+);
+
+-- Tables created before todos had versions get the column, their todos have version 0.
+ALTER TABLE todo ADD COLUMN IF NOT EXISTS version INT DEFAULT 0 NOT NULL;
+
+CREATE INDEX IF NOT EXISTS todo_username_id ON todo (username, id);
+
+-- The highest todo id ever stored, the ids of deleted todos are not handed out again.
+CREATE TABLE IF NOT EXISTS todo_max_id (
+    max_id INT NOT NULL
+);
+
+INSERT INTO todo_max_id (max_id) SELECT COALESCE(MAX(id), 0) FROM todo
+    HAVING NOT EXISTS (SELECT * FROM todo_max_id);
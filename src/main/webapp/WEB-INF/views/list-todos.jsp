@@ -3,7 +3,25 @@
 <%@ include file="common/navigation.jspf"%>
 
 	<div class="container">
-		<table class="table table-striped">
+		<form method="get" action="/list-todos" class="form-inline">
+			<input type="search" name="q" value="<c:out value="${q}" />" placeholder="Search" class="form-control" />
+			<select name="done" class="form-control">
+				<option value="">All todos</option>
+				<option value="false" ${done == 'false' ? 'selected' : ''}>Not completed</option>
+				<option value="true" ${done == 'true' ? 'selected' : ''}>Completed</option>
+			</select>
+			<input type="text" name="from" value="${from}" placeholder="From" class="form-control date" />
+			<input type="text" name="to" value="${to}" placeholder="To" class="form-control date" />
+			<select name="sort" class="form-control">
+				<option value="date">By date</option>
+				<option value="desc" ${sort == 'desc' ? 'selected' : ''}>By description</option>
+			</select>
+			<input type="hidden" name="size" value="${size}" />
+			<button type="submit" class="btn btn-default">Filter</button>
+		</form>
+		<%-- New todos of other pages are only appended to the last page of the whole list --%>
+		<table class="table table-striped" data-version="<c:out value="${listVersion}" />"
+				data-append="${empty nextCursor and empty q and empty done and empty from and empty to}">
 			<caption>Your Todos are</caption>
 			<thead>
 				<tr>
@@ -14,23 +32,107 @@
 				</tr>
 			</thead>
 			<tbody>
-				<c:forEach items="${todos}" var="todo">
-					<tr>
-						<td>${todo.desc}</td>
-						<td><fmt:formatDate pattern="dd/MM/yyyy"
-								value="${todo.targetDate}" /></td>
-						<td>${todo.done}</td>
-						<td><a type="button" class="btn btn-primary"
-							href="/update-todo?id=${todo.id}">Edit</a> <a type="button"
-							class="btn btn-warning" href="/delete-todo?id=${todo.id}">Delete</a>
-						</td>
-					</tr>
-				</c:forEach>
+				<%-- Written by the TodoRowsTag class, the rows are the most rendered part of the application --%>
+				<todo:rows todos="${todos}" />
 			</tbody>
 		</table>
-		<div>
-			<a type="button" class="btn btn-success" href="/add-todo">Add</a>
-		</div>
+		<c:url var="filterUrl" value="/list-todos">
+			<c:param name="size" value="${size}" />
+			<c:param name="done" value="${done}" />
+			<c:param name="from" value="${from}" />
+			<c:param name="to" value="${to}" />
+			<c:param name="sort" value="${sort}" />
+		</c:url>
+		<ul class="pager">
+			<c:if test="${not empty previousCursor}">
+				<li class="previous"><a href="<c:out value="${filterUrl}&before=${previousCursor}" />">Previous</a></li>
+			</c:if>
+			<c:if test="${not empty nextCursor}">
+				<li class="next"><a href="<c:out value="${filterUrl}&after=${nextCursor}" />">Next</a></li>
+			</c:if>
+		</ul>
+		<%-- Sent by the script below, without scripts it is posted like the add form --%>
+		<form id="add-todo" method="post" action="/add-todo" class="form-inline">
+			<input type="text" name="desc" required="required" maxlength="1000" placeholder="New todo" class="form-control" />
+			<input type="hidden" name="${_csrf.parameterName}" value="${_csrf.token}" />
+			<button type="submit" class="btn btn-success">Add</button>
+		</form>
 	</div>
 
-	<%@ include file="common/footer.jspf"%>
\ No newline at end of file
+	<%@ include file="common/footer.jspf"%>
+
+<script>
+	$('input.date').datepicker({
+		format : 'dd/mm/yyyy'
+	});
+
+	// Puts a row in place of the row of the same todo unless that one is newer
+	function putRow(row, append) {
+		row = $(row);
+		var current = $('table tbody tr[data-id="' + row.data('id') + '"]');
+		if (current.length) {
+			if (current.data('version') <= row.data('version'))
+				current.replaceWith(row);
+		} else if (append) {
+			$('table tbody').append(row);
+		}
+	}
+
+	// Toggles a todo without leaving the page, the answer is the new row of the todo
+	$('table').on('change', 'input.todo-done', function() {
+		var checkbox = $(this).prop('disabled', true);
+		$.post('/toggle-todo', {
+			id : checkbox.data('id'),
+			done : checkbox.prop('checked')
+		}).done(function(row) {
+			putRow(row, false);
+		}).fail(function() {
+			checkbox.prop('checked', !checkbox.prop('checked')).prop('disabled', false);
+		});
+	});
+
+	// Adds a todo without reloading the list, its row is appended to the table
+	$('#add-todo').submit(function(event) {
+		event.preventDefault();
+		var form = $(this);
+		$.post(form.attr('action'), form.serialize()).done(function(row) {
+			putRow(row, true);
+			form.find('input[name=desc]').val('');
+		});
+	});
+
+	// Deletes a todo without reloading the list, the server only acknowledges it
+	$('table').on('click', 'a.todo-delete', function(event) {
+		event.preventDefault();
+		var link = $(this);
+		$.post('/delete-todo', {
+			id : link.data('id')
+		}).done(function() {
+			link.closest('tr').remove();
+		});
+	});
+
+	// Live updates: the changes made in other windows and through the REST API
+	if (window.EventSource) {
+		var table = $('table');
+		var source = new EventSource('/todo-events');
+		// The list changed before the page connected, or the page missed events
+		source.addEventListener('hello', function(event) {
+			if (JSON.parse(event.data).list !== table.attr('data-version'))
+				location.reload();
+		});
+		source.addEventListener('reset', function() {
+			location.reload();
+		});
+		source.addEventListener('put', function(event) {
+			var data = JSON.parse(event.data);
+			putRow(data.row, table.data('append'));
+			table.attr('data-version', data.list);
+		});
+		source.addEventListener('delete', function(event) {
+			var data = JSON.parse(event.data);
+			$('table tbody tr[data-id="' + data.id + '"]').remove();
+			table.attr('data-version', data.list);
+		});
+	}
+</script>
\ No newline at end of file
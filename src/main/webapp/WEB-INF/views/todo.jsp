@@ -3,10 +3,14 @@
 <div class="container">
 	<form:form method="post" commandName="todo">
 		<form:hidden path="id" />
+		<form:hidden path="version" />
+		<%-- Set by the checkbox of the todo list, the form keeps it as it is --%>
+		<form:hidden path="done" />
+		<form:errors cssClass="text-warning" element="p" />
 		<fieldset class="form-group">
 			<form:label path="desc">Description</form:label>
 			<form:input path="desc" type="text" class="form-control"
-				required="required" />
+				required="required" maxlength="1000" />
 			<form:errors path="desc" cssClass="text-warning" />
 		</fieldset>
 		<fieldset class="form-group">
@@ -0,0 +1,58 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+/*
+ * Stores empty descriptions in the columnar store where the arena has no chunk for them:
+ * before anything else was stored, right at the end of a full chunk and after the arena
+ * was compacted down to no live bytes at all.
+ */
+public class ColumnarTodoRepositoryTest {
+
+	// The smallest chunk of the arena
+	private static final int CHUNK_BYTES = 1 << 16;
+
+	@Test
+	public void emptyDescriptionInAnEmptyArena() {
+		ColumnarTodoRepository repository = new ColumnarTodoRepository(16, 1024);
+		repository.save(new Todo(1, "u", "", new Date(), false, 1));
+		assertEquals("", repository.findById(1).getDesc());
+	}
+
+	@Test
+	public void emptyDescriptionAtTheEndOfAFullChunk() {
+		ColumnarTodoRepository repository = new ColumnarTodoRepository(16, CHUNK_BYTES);
+		repository.save(new Todo(1, "u", text('a', CHUNK_BYTES), new Date(), false, 1));
+		repository.save(new Todo(2, "u", "", new Date(), false, 1));
+		repository.save(new Todo(3, "u", "next chunk", new Date(), false, 1));
+		assertEquals(CHUNK_BYTES, repository.findById(1).getDesc().length());
+		assertEquals("", repository.findById(2).getDesc());
+		assertEquals("next chunk", repository.findById(3).getDesc());
+	}
+
+	@Test
+	public void emptyDescriptionsAfterTheArenaWasCompacted() {
+		ColumnarTodoRepository repository = new ColumnarTodoRepository(16, CHUNK_BYTES);
+		repository.save(new Todo(1, "u", "", new Date(), false, 1));
+		repository.save(new Todo(2, "u", text('b', 40000), new Date(), false, 1));
+		// Replacing the only long description leaves nothing but garbage, the arena is compacted
+		for (int i = 0; i < 4; i++)
+			repository.save(new Todo(2, "u", "", new Date(), false, 1));
+		repository.save(new Todo(3, "u", text('c', 40000), new Date(), false, 1));
+		repository.save(new Todo(3, "u", text('d', 40000), new Date(), false, 1));
+		assertEquals("", repository.findById(1).getDesc());
+		assertEquals("", repository.findById(2).getDesc());
+		assertEquals(text('d', 40000), repository.findById(3).getDesc());
+	}
+
+	private static String text(char c, int length) {
+		char[] chars = new char[length];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,61 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/*
+ * Checks that the InMemoryTodoRepository returns todos in the order of their ids, as the
+ * TodoRepository interface promises, whatever order they were stored in and whichever
+ * shards they are spread over.
+ */
+public class InMemoryTodoRepositoryTest {
+
+	@Test
+	public void todosOfAUserAreInIdOrder() {
+		InMemoryTodoRepository repository = new InMemoryTodoRepository(1);
+		for (int id = 1; id <= 3; id++)
+			repository.save(new Todo(id, "u", "todo " + id, new Date(), false, 1));
+		repository.save(new Todo(4, "other", "moved", new Date(), false, 1));
+		// A deleted todo is stored again and a todo of another user moves to u
+		repository.delete(1);
+		repository.save(new Todo(1, "u", "stored again", new Date(), false, 1));
+		repository.save(new Todo(4, "u", "moved", new Date(), false, 2));
+		repository.save(new Todo(0, "u", "lowest", new Date(), false, 1));
+
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, ids(repository.findByUser("u")));
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, ids(repository.findByFilter("u", TodoFilter.ALL)));
+	}
+
+	@Test
+	public void findAllMergesTheShardsInIdOrder() {
+		InMemoryTodoRepository repository = new InMemoryTodoRepository(8);
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int id = 1; id <= 1000; id++)
+			todos.add(new Todo(id, "user" + id % 13, "todo " + id, new Date(), false, 1));
+		Collections.shuffle(todos, new Random(42));
+		repository.saveAll(todos.subList(0, 500));
+		for (Todo todo : todos.subList(500, 1000))
+			repository.save(todo);
+
+		assertEquals(1000, repository.size());
+		assertArrayEquals(IntStream.rangeClosed(1, 1000).toArray(), ids(repository.findAll()));
+		for (int user = 0; user < 13; user++) {
+			int remainder = user;
+			assertArrayEquals(IntStream.rangeClosed(1, 1000).filter(id -> id % 13 == remainder).toArray(),
+					ids(repository.findByUser("user" + user)));
+		}
+	}
+
+	private static int[] ids(List<Todo> todos) {
+		return todos.stream().mapToInt(Todo::getId).toArray();
+	}
+}
@@ -0,0 +1,132 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/*
+ * Runs the JdbcTodoRepository against an H2 database in memory that is created by the
+ * todo-schema.sql script, a new database for every test.
+ */
+public class JdbcTodoRepositoryTest {
+
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	private JdbcConnectionPool dataSource;
+	private JdbcTodoRepository repository;
+
+	@Before
+	public void createDatabase() {
+		dataSource = JdbcConnectionPool.create("jdbc:h2:mem:todo" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1",
+				"sa", "");
+		DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(new ClassPathResource("todo-schema.sql")),
+				dataSource);
+		repository = new JdbcTodoRepository(dataSource);
+	}
+
+	@After
+	public void dropDatabase() {
+		dataSource.dispose();
+	}
+
+	@Test
+	public void storesChangesAndDeletesTodos() {
+		repository.save(new Todo(1, "u", "first", new Date(1000), false, 0));
+		repository.saveAll(Arrays.asList(new Todo(2, "u", "second", null, true, 0),
+				new Todo(3, "other", "third", new Date(3000), false, 0)));
+		assertEquals(3, repository.size());
+		assertEquals("first", repository.findById(1).getDesc());
+		assertNull(repository.findById(2).getTargetDate());
+		assertEquals(Arrays.asList(1, 2), ids(repository.findByUser("u")));
+
+		Todo changed = new Todo(1, "u", "changed", new Date(1000), true, 0);
+		assertTrue(repository.update(changed, 0));
+		assertEquals(1, changed.getVersion());
+		// The version the change was based on is gone
+		assertFalse(repository.update(new Todo(1, "u", "stale", new Date(1000), false, 0), 0));
+		Todo stored = repository.findById(1);
+		assertEquals("changed", stored.getDesc());
+		assertTrue(stored.isDone());
+		assertEquals(1, stored.getVersion());
+
+		assertFalse(repository.delete(1, 0));
+		assertTrue(repository.delete(1, 1));
+		assertNull(repository.findById(1));
+		repository.deleteAll(Arrays.asList(2, 3));
+		assertEquals(0, repository.size());
+	}
+
+	@Test
+	public void pagesThroughTodosByTargetDate() {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int id = 1; id <= 5; id++)
+			todos.add(new Todo(id, "u", "todo " + id, new Date((6 - id) * 1000L), false, 0));
+		todos.add(new Todo(6, "u", "same day as 5", new Date(1000), false, 0));
+		todos.add(new Todo(7, "other", "not u", new Date(0), false, 0));
+		repository.saveAll(todos);
+
+		TodoPage first = repository.findPage("u", null, null, 2);
+		assertEquals(Arrays.asList(5, 6), ids(first.getTodos()));
+		assertNull(first.getPrevious());
+		TodoPage second = repository.findPage("u", first.getNext(), null, 2);
+		assertEquals(Arrays.asList(4, 3), ids(second.getTodos()));
+		TodoPage last = repository.findPage("u", second.getNext(), null, 2);
+		assertEquals(Arrays.asList(2, 1), ids(last.getTodos()));
+		assertNull(last.getNext());
+
+		// Going back from the last page gives the second page again
+		assertEquals(ids(second.getTodos()), ids(repository.findPage("u", null, last.getPrevious(), 2).getTodos()));
+	}
+
+	@Test
+	public void maxIdRemembersDeletedTodos() {
+		assertEquals(0, repository.maxId());
+		repository.saveAll(Arrays.asList(new Todo(4, "u", "a", null, false, 0), new Todo(9, "u", "b", null, false, 0)));
+		assertEquals(9, repository.maxId());
+		repository.delete(9);
+		assertEquals(9, repository.maxId());
+		// A new repository on the same database reads it back
+		assertEquals(9, new JdbcTodoRepository(dataSource).maxId());
+	}
+
+	@Test
+	public void saveAllStoresNothingWhenOneTodoIsRefused() {
+		repository.save(new Todo(1, "u", "before", null, false, 0));
+		char[] tooLong = new char[Todo.MAX_DESC_LENGTH + 1];
+		Arrays.fill(tooLong, 'x');
+		try {
+			repository.saveAll(Arrays.asList(new Todo(1, "u", "after", null, false, 0),
+					new Todo(2, "u", "fits", null, false, 0), new Todo(3, "u", new String(tooLong), null, false, 0)));
+			fail("The description is longer than its column");
+		} catch (DataAccessException expected) {
+		}
+		// The update of todo 1 and the insert of todo 2 were rolled back with it
+		assertEquals("before", repository.findById(1).getDesc());
+		assertNull(repository.findById(2));
+		assertEquals(1, repository.maxId());
+	}
+
+	private static List<Integer> ids(List<Todo> todos) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Todo todo : todos)
+			ids.add(todo.getId());
+		return ids;
+	}
+}
@@ -0,0 +1,58 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+/*
+ * Writes cursors of both sorts into the text of a URL and reads them back, and checks that
+ * the list page shows the first page for a cursor it cannot use.
+ */
+public class TodoCursorTest {
+
+	@Test
+	public void cursorsSurviveTheUrl() {
+		Todo todo = new Todo(42, "u", "Learn Java \u00e9 & co/?", new Date(1476662400000L), false);
+		roundTrip(TodoCursor.of(todo, TodoSort.DATE));
+		roundTrip(TodoCursor.of(todo, TodoSort.DESC));
+		roundTrip(TodoCursor.of(new Todo(7, "u", null, null, false), TodoSort.DATE));
+		roundTrip(TodoCursor.of(new Todo(7, "u", null, null, false), TodoSort.DESC));
+		roundTrip(TodoCursor.byDesc("", 3));
+
+		assertEquals("1476662400000_42", TodoCursor.of(todo, TodoSort.DATE).toString());
+		assertEquals("d7", TodoCursor.byDesc(null, 7).toString());
+	}
+
+	@Test
+	public void invalidCursorsAreRefused() {
+		for (String text : new String[] { "", "42", "x_42", "1476662400000_", "_42", "dx_TGVhcm4", "d42_%%%" }) {
+			try {
+				TodoCursor.parse(text);
+				fail("Parsed " + text);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void listPageFallsBackToTheFirstPage() {
+		TodoCursor byDate = new TodoCursor(1476662400000L, 42);
+		assertEquals(byDate, TodoController.parseCursor(byDate.toString(), TodoSort.DATE));
+		assertNull(TodoController.parseCursor(null, TodoSort.DATE));
+		assertNull(TodoController.parseCursor("", TodoSort.DATE));
+		assertNull(TodoController.parseCursor("not a cursor", TodoSort.DATE));
+		// A link of the other sort, left over after the sort was changed
+		assertNull(TodoController.parseCursor(byDate.toString(), TodoSort.DESC));
+		assertNull(TodoController.parseCursor(TodoCursor.byDesc("a", 1).toString(), TodoSort.DATE));
+	}
+
+	private static void roundTrip(TodoCursor cursor) {
+		TodoCursor parsed = TodoCursor.parse(cursor.toString());
+		assertEquals(cursor, parsed);
+		assertEquals(0, cursor.compareTo(parsed));
+	}
+}
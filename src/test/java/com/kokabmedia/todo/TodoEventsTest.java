@@ -0,0 +1,80 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/*
+ * Stalls the send to one page on the only sending thread and checks that the watchdog
+ * closes the connection of that page, which frees the thread for the events of another
+ * page. The connection stands in for the output stream of a response: a write to it
+ * blocks until it is closed and then fails, like a write to a socket the browser stopped
+ * reading from.
+ */
+public class TodoEventsTest {
+
+	private static final Supplier<TodoVersion> VERSION = () -> new TodoVersion(1, 1, 0);
+
+	@Test
+	public void stalledSendIsEndedByClosingTheConnection() throws Exception {
+		ExecutorService sender = Executors.newSingleThreadExecutor();
+		TodoEvents events = new TodoEvents(sender, 10, 60, 1);
+		try {
+			CountDownLatch closed = new CountDownLatch(1);
+			CountDownLatch completed = new CountDownLatch(1);
+			events.subscribe("stalled", VERSION, closed::countDown, new SseEmitter() {
+				@Override
+				public void send(SseEventBuilder event) throws IOException {
+					// Like a servlet write, an interrupt does not end it
+					boolean interrupted = false;
+					while (closed.getCount() > 0) {
+						try {
+							closed.await();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted)
+						Thread.currentThread().interrupt();
+					throw new IOException("The connection was closed");
+				}
+
+				@Override
+				public synchronized void complete() {
+					completed.countDown();
+				}
+			});
+
+			CountDownLatch received = new CountDownLatch(1);
+			Closeable connection = () -> {
+				throw new AssertionError("The page that reads its events is not closed");
+			};
+			events.subscribe("reading", VERSION, connection, new SseEmitter() {
+				@Override
+				public void send(SseEventBuilder event) {
+					received.countDown();
+				}
+			});
+
+			// The hello event of the reading page waits for the stalled send to give up the thread
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			assertEquals(0, closed.getCount());
+			assertTrue(completed.await(5, TimeUnit.SECONDS));
+			assertEquals(1, events.getStalls());
+			assertEquals(1, events.getSubscriberCount());
+		} finally {
+			events.close();
+			sender.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/*
+ * Hands out ids from many threads at the same time and checks that no id is handed out
+ * twice and none is skipped, and that advancePast() never moves the generator back.
+ */
+public class TodoIdGeneratorTest {
+
+	private static final int THREADS = 16;
+
+	private static final int IDS_PER_THREAD = 100000;
+
+	@Test
+	public void concurrentIdsAreUnique() throws Exception {
+		TodoIdGenerator generator = new TodoIdGenerator(0);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+			for (int t = 0; t < THREADS; t++) {
+				results.add(executor.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() throws Exception {
+						start.await();
+						int[] ids = new int[IDS_PER_THREAD];
+						for (int i = 0; i < ids.length; i++)
+							ids[i] = generator.nextId();
+						return ids;
+					}
+				}));
+			}
+			start.countDown();
+
+			BitSet seen = new BitSet();
+			for (Future<int[]> result : results) {
+				int previous = 0;
+				for (int id : result.get()) {
+					assertTrue("id " + id + " was handed out twice", !seen.get(id));
+					// The ids one thread gets only go up
+					assertTrue(id > previous);
+					seen.set(id);
+					previous = id;
+				}
+			}
+			int total = THREADS * IDS_PER_THREAD;
+			assertEquals(total, seen.cardinality());
+			assertEquals(total, seen.nextClearBit(1) - 1);
+			assertEquals(total, generator.lastId());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentAdvancePastKeepsTheHighestId() throws Exception {
+		TodoIdGenerator generator = new TodoIdGenerator(0);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int t = 0; t < THREADS; t++) {
+				int offset = t;
+				results.add(executor.submit(() -> {
+					for (int i = 0; i < IDS_PER_THREAD; i += THREADS)
+						generator.advancePast(i + offset);
+					generator.nextId();
+				}));
+			}
+			for (Future<?> result : results)
+				result.get();
+			// Every nextId() ran after some advancePast() and added one
+			assertTrue(generator.lastId() >= IDS_PER_THREAD - 1);
+			assertTrue(generator.lastId() <= IDS_PER_THREAD - 1 + THREADS);
+			generator.advancePast(5);
+			assertTrue(generator.nextId() > IDS_PER_THREAD - 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Damages the files of a TodoJournal the way a crash can leave them and checks what is
+ * replayed from them. Closing a TodoJournal without writing a snapshot is what a crash
+ * leaves behind, the records are in the page cache of the mapped journal file.
+ */
+public class TodoJournalTest {
+
+	private static final int CAPACITY = 1 << 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void corruptLastRecordIsNotReplayed() throws Exception {
+		File directory = folder.newFolder();
+		int lastRecordEnd = writeThreeTodos(directory);
+		// One bit of the description of todo 3 flips, the checksum no longer matches
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, "todos.journal"), "rw")) {
+			file.seek(lastRecordEnd - 1);
+			int last = file.read();
+			file.seek(lastRecordEnd - 1);
+			file.write(last ^ 1);
+		}
+
+		InMemoryTodoRepository replayed = new InMemoryTodoRepository(1);
+		TodoJournal journal = open(directory, replayed);
+		assertArrayEquals(new int[] { 1, 2 }, ids(replayed));
+
+		// The journal continues where the valid records end
+		journal.appendPut(todo(4, "after the crash"));
+		journal.close();
+		InMemoryTodoRepository again = new InMemoryTodoRepository(1);
+		open(directory, again).close();
+		assertArrayEquals(new int[] { 1, 2, 4 }, ids(again));
+	}
+
+	@Test
+	public void truncatedLastRecordIsNotReplayed() throws Exception {
+		File directory = folder.newFolder();
+		int lastRecordEnd = writeThreeTodos(directory);
+		// The write of todo 3 stopped in the middle of its description
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, "todos.journal"), "rw")) {
+			file.setLength(lastRecordEnd - 5);
+		}
+
+		InMemoryTodoRepository replayed = new InMemoryTodoRepository(1);
+		open(directory, replayed).close();
+		assertArrayEquals(new int[] { 1, 2 }, ids(replayed));
+		assertEquals("todo 2", replayed.findById(2).getDesc());
+	}
+
+	@Test
+	public void snapshotIsWrittenNextToTheOldOneAndMovedOverIt() throws Exception {
+		File directory = folder.newFolder();
+		writeThreeTodos(directory);
+		InMemoryTodoRepository replayed = new InMemoryTodoRepository(1);
+		TodoJournal journal = open(directory, replayed);
+		journal.writeSnapshot(replayed.findAll(), 7);
+
+		assertTrue(new File(directory, "todos.snapshot").exists());
+		assertFalse(new File(directory, "todos.snapshot.tmp").exists());
+		// The journal starts over after its header
+		assertEquals(8, journal.size());
+		journal.close();
+
+		InMemoryTodoRepository again = new InMemoryTodoRepository(1);
+		TodoJournal reopened = open(directory, again);
+		reopened.close();
+		assertArrayEquals(new int[] { 1, 2, 3 }, ids(again));
+		assertEquals(7, reopened.getMaxId());
+	}
+
+	@Test
+	public void crashWhileWritingSnapshotKeepsTheOldSnapshot() throws Exception {
+		File directory = folder.newFolder();
+		writeThreeTodos(directory);
+		InMemoryTodoRepository replayed = new InMemoryTodoRepository(1);
+		TodoJournal journal = open(directory, replayed);
+		journal.writeSnapshot(replayed.findAll(), 3);
+		journal.appendDelete(2);
+		journal.close();
+		// The next snapshot was only half written when the process died
+		Files.write(new File(directory, "todos.snapshot.tmp").toPath(), new byte[] { 0x54, 0x4F, 0x44 });
+
+		InMemoryTodoRepository again = new InMemoryTodoRepository(1);
+		TodoJournal reopened = open(directory, again);
+		assertArrayEquals(new int[] { 1, 3 }, ids(again));
+		// The leftover file is overwritten by the next snapshot
+		reopened.writeSnapshot(again.findAll(), 3);
+		reopened.close();
+		assertFalse(new File(directory, "todos.snapshot.tmp").exists());
+		InMemoryTodoRepository last = new InMemoryTodoRepository(1);
+		open(directory, last).close();
+		assertArrayEquals(new int[] { 1, 3 }, ids(last));
+	}
+
+	@Test
+	public void crashBeforeJournalWasEmptiedReplaysItOnTheNewSnapshot() throws Exception {
+		File directory = folder.newFolder();
+		writeThreeTodos(directory);
+		File journalFile = new File(directory, "todos.journal");
+		InMemoryTodoRepository replayed = new InMemoryTodoRepository(1);
+		TodoJournal journal = open(directory, replayed);
+		journal.appendPut(todo(2, "changed"));
+		journal.appendDelete(3);
+		journal.close();
+		byte[] oldJournal = Files.readAllBytes(journalFile.toPath());
+
+		InMemoryTodoRepository current = new InMemoryTodoRepository(1);
+		journal = open(directory, current);
+		journal.writeSnapshot(current.findAll(), 3);
+		journal.close();
+		// The snapshot was moved into place but the journal was not zeroed yet
+		Files.write(journalFile.toPath(), oldJournal);
+
+		InMemoryTodoRepository again = new InMemoryTodoRepository(1);
+		open(directory, again).close();
+		assertArrayEquals(new int[] { 1, 2 }, ids(again));
+		assertEquals("changed", again.findById(2).getDesc());
+	}
+
+	// Returns the end of the record of todo 3 in the journal file.
+	private static int writeThreeTodos(File directory) throws Exception {
+		TodoJournal journal = open(directory, new InMemoryTodoRepository(1));
+		journal.appendPut(todo(1, "todo 1"));
+		journal.appendPut(todo(2, "todo 2"));
+		journal.appendPut(todo(3, "todo 3"));
+		int end = journal.size();
+		journal.close();
+		return end;
+	}
+
+	private static TodoJournal open(File directory, TodoRepository target) throws Exception {
+		TodoJournal journal = new TodoJournal(directory, CAPACITY);
+		journal.open(target);
+		return journal;
+	}
+
+	private static Todo todo(int id, String desc) {
+		return new Todo(id, "u", desc, null, false, 1);
+	}
+
+	private static int[] ids(TodoRepository repository) {
+		return repository.findAll().stream().mapToInt(Todo::getId).toArray();
+	}
+}
@@ -0,0 +1,92 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+/*
+ * Changes and deletes a few todos from many threads at the same time, every change is
+ * stored with a compare and set and then synced to the index the way the TodoService
+ * class does it. Afterwards the index has to hold exactly the words of the stored todos,
+ * no words of older versions and no ids of deleted todos.
+ */
+public class TodoSearchIndexTest {
+
+	private static final int THREADS = 8;
+
+	private static final int TODOS = 16;
+
+	private static final int CHANGES_PER_THREAD = 20000;
+
+	@Test
+	public void concurrentChangesLeaveTheWordsOfTheStoredTodos() throws Exception {
+		TodoRepository repository = new InMemoryTodoRepository(4);
+		TodoSearchIndex index = new TodoSearchIndex();
+		for (int id = 1; id <= TODOS; id++) {
+			repository.save(new Todo(id, "u", "k0", new Date(), false, 1));
+			sync(index, repository, id);
+		}
+
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int t = 0; t < THREADS; t++) {
+				results.add(executor.submit(() -> {
+					start.await();
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < CHANGES_PER_THREAD; i++) {
+						int id = 1 + random.nextInt(TODOS);
+						Todo todo = repository.findById(id);
+						if (todo == null)
+							continue;
+						// Few deletes, so most todos live long enough to be changed side by side
+						boolean stored;
+						if (random.nextInt(20000) == 0) {
+							stored = repository.delete(id, todo.getVersion());
+						} else {
+							todo.setDesc("k" + random.nextInt(10));
+							stored = repository.update(todo, todo.getVersion());
+						}
+						if (!stored)
+							continue;
+						// Now and then another change of the same todo overtakes this one before it is indexed
+						if (random.nextInt(100) == 0)
+							Thread.sleep(1);
+						sync(index, repository, id);
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> result : results)
+				result.get();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<Todo> stored = repository.findByUser("u");
+		assertArrayEquals(ids(stored, null), index.search("u", "k"));
+		for (int word = 0; word < 10; word++)
+			assertArrayEquals("k" + word, ids(stored, "k" + word), index.search("u", "k" + word));
+	}
+
+	private static void sync(TodoSearchIndex index, TodoRepository repository, int id) {
+		index.sync(id, () -> repository.findById(id));
+	}
+
+	// The ids of the todos with a description, or of all todos, in the order of their ids.
+	private static int[] ids(List<Todo> todos, String desc) {
+		return todos.stream().filter(todo -> desc == null || desc.equals(todo.getDesc())).mapToInt(Todo::getId)
+				.toArray();
+	}
+}
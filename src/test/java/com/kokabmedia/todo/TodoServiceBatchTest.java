@@ -0,0 +1,62 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+/*
+ * Lets another request change one todo while a batch is stored and checks that only the
+ * operations on that todo fail with 409, the changes of the other todos are stored.
+ */
+public class TodoServiceBatchTest {
+
+	@Test
+	public void conflictingTodoFailsAndOtherTodosAreStored() {
+		InMemoryTodoRepository repository = new InMemoryTodoRepository(1) {
+			private boolean raced;
+
+			@Override
+			public boolean update(Todo todo, int expectedVersion) {
+				if (todo.getDesc().equals("batch changed") && !raced) {
+					// Another request stores its change right before the batch does
+					raced = true;
+					super.update(new Todo(todo.getId(), "u", "other request", null, false, 0), expectedVersion);
+				}
+				return super.update(todo, expectedVersion);
+			}
+		};
+		TodoService service = new TodoService(repository, new TodoListCache(10, 300),
+				new TodoEvents(Runnable::run, 10, 300));
+		Todo kept = service.addTodo("u", "kept", new Date(), false);
+		Todo raced = service.addTodo("u", "raced", new Date(), false);
+		Todo deleted = service.addTodo("u", "deleted", new Date(), false);
+
+		List<TodoOperationResult> results = service.applyBatch("u",
+				Arrays.asList(operation(TodoOperation.UPDATE, kept.getId(), "kept changed"),
+						operation(TodoOperation.UPDATE, raced.getId(), "batch changed"),
+						operation(TodoOperation.DELETE, deleted.getId(), null),
+						operation(TodoOperation.CREATE, null, "created")));
+
+		assertEquals(200, results.get(0).getStatus());
+		assertEquals(409, results.get(1).getStatus());
+		assertEquals(204, results.get(2).getStatus());
+		assertEquals(201, results.get(3).getStatus());
+		assertEquals("kept changed", service.retrieveTodo(kept.getId()).getDesc());
+		assertEquals("other request", service.retrieveTodo(raced.getId()).getDesc());
+		assertNull(service.retrieveTodo(deleted.getId()));
+		assertEquals("created", service.retrieveTodo(results.get(3).getTodo().getId()).getDesc());
+	}
+
+	private static TodoOperation operation(String op, Integer id, String desc) {
+		TodoOperation operation = new TodoOperation();
+		operation.setOp(op);
+		operation.setId(id);
+		operation.setDesc(desc);
+		return operation;
+	}
+}
@@ -0,0 +1,95 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Fills the TodoListCache with the lists of a user and checks that every change made
+ * through the TodoService drops them, so the next read shows the change, while the lists
+ * of other users stay cached.
+ */
+public class TodoServiceCacheTest {
+
+	private TodoListCache cache;
+	private TodoService service;
+
+	@Before
+	public void createService() {
+		cache = new TodoListCache(10, 300);
+		service = new TodoService(new InMemoryTodoRepository(1), cache, new TodoEvents(Runnable::run, 10, 300));
+	}
+
+	@Test
+	public void writesDropTheCachedListsOfTheUser() {
+		Todo first = service.addTodo("u", "first", new Date(1000), false);
+		assertReadsAgain("first");
+
+		service.addTodo("u", "added", new Date(2000), false);
+		assertReadsAgain("first", "added");
+
+		assertTrue(service.updateTodo(new Todo(first.getId(), "u", "updated", new Date(1000), false), 1));
+		assertReadsAgain("updated", "added");
+
+		service.changeTodo(first.getId(), "u", todo -> todo.setDesc("changed"));
+		assertReadsAgain("changed", "added");
+
+		assertTrue(service.deleteTodo(first.getId(), "u"));
+		assertReadsAgain("added");
+
+		// Stored again after it was deleted
+		service.updateTodo(new Todo(first.getId(), "u", "resurrected", new Date(1000), false));
+		assertReadsAgain("resurrected", "added");
+
+		TodoOperation create = new TodoOperation();
+		create.setOp(TodoOperation.CREATE);
+		create.setDesc("batch");
+		create.setTargetDate(new Date(3000));
+		service.applyBatch("u", Arrays.asList(create));
+		assertReadsAgain("resurrected", "added", "batch");
+	}
+
+	@Test
+	public void listsOfOtherUsersStayCached() {
+		service.addTodo("other", "kept", new Date(), false);
+		List<Todo> cached = service.retrieveTodos("other");
+		service.addTodo("u", "first", new Date(), false);
+		long misses = cache.getMisses();
+		assertSame(cached, service.retrieveTodos("other"));
+		assertEquals(misses, cache.getMisses());
+	}
+
+	/*
+	 * Reads the lists of the user, which must have been dropped since the last read, and
+	 * reads them once more from the cache.
+	 */
+	private void assertReadsAgain(String... descs) {
+		long misses = cache.getMisses();
+		List<String> expected = Arrays.asList(descs);
+		assertEquals(expected, descs(service.retrieveTodos("u")));
+		assertEquals(expected, descs(service.retrieveTodos("u", TodoFilter.ALL)));
+		assertEquals(expected, descs(service.retrieveTodoPage("u", null, null, 10).getTodos()));
+		assertEquals(misses + 3, cache.getMisses());
+
+		long hits = cache.getHits();
+		service.retrieveTodos("u");
+		service.retrieveTodos("u", TodoFilter.ALL);
+		service.retrieveTodoPage("u", null, null, 10);
+		assertEquals(hits + 3, cache.getHits());
+	}
+
+	private static List<String> descs(List<Todo> todos) {
+		List<String> descs = new ArrayList<String>();
+		for (Todo todo : todos)
+			descs.add(todo.getDesc());
+		return descs;
+	}
+}
@@ -0,0 +1,63 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Restarts a TodoService on a journal after its newest todo was deleted and checks that
+ * the id of the deleted todo is not handed out again, whether the deletion was replayed
+ * from the journal or compacted into a snapshot.
+ */
+public class TodoServiceIdTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void deletedIdIsNotReusedAfterJournalReplay() throws Exception {
+		File directory = folder.newFolder();
+		JournalTodoRepository repository = open(directory);
+		Todo deleted = addAndDeleteNewest(service(repository));
+		// Started again without closing, the put and the delete are replayed from the journal
+		JournalTodoRepository reopened = open(directory);
+		assertNull(reopened.findById(deleted.getId()));
+		assertEquals(deleted.getId() + 1, service(reopened).addTodo("u", "after", new Date(), false).getId());
+	}
+
+	@Test
+	public void deletedIdIsNotReusedAfterSnapshot() throws Exception {
+		File directory = folder.newFolder();
+		JournalTodoRepository repository = open(directory);
+		Todo deleted = addAndDeleteNewest(service(repository));
+		// The snapshot written on close no longer holds the deleted todo
+		repository.close();
+
+		JournalTodoRepository reopened = open(directory);
+		assertEquals(deleted.getId() + 1, service(reopened).addTodo("u", "after", new Date(), false).getId());
+		reopened.close();
+	}
+
+	private static JournalTodoRepository open(File directory) throws Exception {
+		JournalTodoRepository repository = new JournalTodoRepository(directory.getPath(), 1 << 20);
+		repository.open();
+		return repository;
+	}
+
+	private static TodoService service(TodoRepository repository) {
+		return new TodoService(repository, new TodoListCache(10, 300), new TodoEvents(Runnable::run, 10, 300));
+	}
+
+	private static Todo addAndDeleteNewest(TodoService service) {
+		service.addTodo("u", "kept", new Date(), false);
+		Todo newest = service.addTodo("u", "deleted", new Date(), false);
+		service.deleteTodo(newest.getId());
+		return newest;
+	}
+}
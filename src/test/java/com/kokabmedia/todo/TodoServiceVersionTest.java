@@ -0,0 +1,64 @@
+package com.kokabmedia.todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+/*
+ * Updates a todo with the version that was read and checks that an update based on an
+ * older version is refused and stores nothing, which the controllers answer with 409.
+ */
+public class TodoServiceVersionTest {
+
+	private final TodoService service = new TodoService(new InMemoryTodoRepository(1), new TodoListCache(10, 300),
+			new TodoEvents(Runnable::run, 10, 300));
+
+	@Test
+	public void staleVersionIsRefused() {
+		Todo todo = service.addTodo("u", "first", new Date(), false);
+		assertEquals(1, todo.getVersion());
+
+		// Two forms read version 1, the first one to be sent wins
+		Todo first = new Todo(todo.getId(), "u", "from the first form", new Date(), false);
+		Todo second = new Todo(todo.getId(), "u", "from the second form", new Date(), true);
+		assertTrue(service.updateTodo(first, 1));
+		assertEquals(2, first.getVersion());
+		assertFalse(service.updateTodo(second, 1));
+
+		Todo stored = service.retrieveTodo(todo.getId());
+		assertEquals("from the first form", stored.getDesc());
+		assertFalse(stored.isDone());
+		assertEquals(2, stored.getVersion());
+
+		// Sent again with the version it reads now, the second form wins
+		assertTrue(service.updateTodo(second, stored.getVersion()));
+		assertEquals(3, service.retrieveTodo(todo.getId()).getVersion());
+	}
+
+	@Test
+	public void todoOfAnotherUserIsNotTakenOver() {
+		Todo todo = service.addTodo("owner", "mine", new Date(), false);
+		Todo foreign = new Todo(todo.getId(), "someone", "taken over", new Date(), false);
+		assertFalse(service.updateTodo(foreign, todo.getVersion(), "someone"));
+		Todo stored = service.retrieveTodo(todo.getId());
+		assertEquals("owner", stored.getUser());
+		assertEquals("mine", stored.getDesc());
+		assertEquals(0, service.retrieveTodos("someone").size());
+
+		// The owner's own update keeps the todo with the owner whatever user the bean names
+		assertTrue(service.updateTodo(foreign, todo.getVersion(), "owner"));
+		assertEquals("owner", service.retrieveTodo(todo.getId()).getUser());
+	}
+
+	@Test
+	public void deletedTodoIsNotStoredAgain() {
+		Todo todo = service.addTodo("u", "deleted", new Date(), false);
+		service.deleteTodo(todo.getId());
+		assertFalse(service.updateTodo(new Todo(todo.getId(), "u", "too late", new Date(), false), 1));
+		assertEquals(0, service.retrieveTodos("u").size());
+	}
+}